@@ -0,0 +1,120 @@
+package com.mparaz.restaurant.service.impl;
+
+import com.mparaz.restaurant.Restaurant;
+import com.mparaz.restaurant.Table;
+import com.mparaz.restaurant.Waiter;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Generated model data for benchmarks.
+ * <p>
+ * Every even-numbered table is assigned, round-robin over the waiters, so no waiter starts with more
+ * than half the tables of a restaurant. Odd-numbered tables start unassigned.
+ */
+public class BenchmarkData {
+
+    /**
+     * Data sizes, from the /setup size up to 1,000 restaurants and 1M tables.
+     */
+    public enum Size {
+        SMALL(2, 20, 8),
+        MEDIUM(100, 50, 200),
+        LARGE(1000, 100, 2000),
+        HUGE(1000, 1000, 20000);
+
+        private final int restaurants;
+
+        private final int tablesPerRestaurant;
+
+        private final int waiters;
+
+        Size(int restaurants, int tablesPerRestaurant, int waiters) {
+            this.restaurants = restaurants;
+            this.tablesPerRestaurant = tablesPerRestaurant;
+            this.waiters = waiters;
+        }
+    }
+
+    private final List<Restaurant> restaurants = new ArrayList<>();
+
+    /**
+     * Tables by restaurant index, then table index.
+     */
+    private final List<List<Table>> tables = new ArrayList<>();
+
+    private final List<Waiter> waiters = new ArrayList<>();
+
+    private final Map<Waiter, Set<Table>> waiterTableAssignments = new HashMap<>();
+
+    public BenchmarkData(Size size) {
+        for (int i = 0; i < size.waiters; i++) {
+            waiters.add(new Waiter("Waiter" + i));
+        }
+
+        for (int i = 0; i < size.restaurants; i++) {
+            final Restaurant restaurant = new Restaurant("Restaurant" + i);
+            restaurants.add(restaurant);
+
+            final List<Table> restaurantTables = new ArrayList<>();
+            for (int j = 0; j < size.tablesPerRestaurant; j++) {
+                final Table table = new Table("Table" + j, restaurant);
+                restaurantTables.add(table);
+
+                if (j % 2 == 0) {
+                    final Waiter waiter = waiters.get((i + j / 2) % size.waiters);
+                    waiterTableAssignments.computeIfAbsent(waiter, waiter1 -> new HashSet<>()).add(table);
+                }
+            }
+
+            tables.add(restaurantTables);
+        }
+    }
+
+    public List<Restaurant> getRestaurants() {
+        return Collections.unmodifiableList(restaurants);
+    }
+
+    public Restaurant getRestaurant(int restaurantIndex) {
+        return restaurants.get(restaurantIndex);
+    }
+
+    public Table getTable(int restaurantIndex, int tableIndex) {
+        return tables.get(restaurantIndex).get(tableIndex);
+    }
+
+    public Set<Table> getTables() {
+        final Set<Table> result = new HashSet<>();
+        for (final List<Table> restaurantTables : tables) {
+            result.addAll(restaurantTables);
+        }
+
+        return result;
+    }
+
+    public List<Waiter> getWaiters() {
+        return Collections.unmodifiableList(waiters);
+    }
+
+    public Waiter getWaiter(int waiterIndex) {
+        return waiters.get(waiterIndex);
+    }
+
+    /**
+     * A copy of the initial assignments, since the caller may modify them.
+     */
+    public Map<Waiter, Set<Table>> getWaiterTableAssignments() {
+        final Map<Waiter, Set<Table>> result = new HashMap<>();
+        for (final Map.Entry<Waiter, Set<Table>> entry : waiterTableAssignments.entrySet()) {
+            result.put(entry.getKey(), new HashSet<>(entry.getValue()));
+        }
+
+        return result;
+    }
+}
@@ -0,0 +1,127 @@
+package com.mparaz.restaurant.service.impl;
+
+import com.mparaz.restaurant.Restaurant;
+import com.mparaz.restaurant.Table;
+import com.mparaz.restaurant.Waiter;
+import com.mparaz.restaurant.service.CacheStatistics;
+import com.mparaz.restaurant.service.ChangeLogEntry;
+import com.mparaz.restaurant.service.PersistedState;
+import com.mparaz.restaurant.service.PersistenceService;
+import com.mparaz.restaurant.service.ProvisioningResult;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Persistence service serving benchmark data from memory, so that the management service can be
+ * measured without the database.
+ */
+class InMemoryPersistenceService implements PersistenceService {
+
+    private final BenchmarkData benchmarkData;
+
+    InMemoryPersistenceService(BenchmarkData benchmarkData) {
+        this.benchmarkData = benchmarkData;
+    }
+
+    @Override
+    public long assign(Table table, Waiter waiter) {
+        // Not persisted.
+        return 0;
+    }
+
+    @Override
+    public long assignAll(Map<Table, Waiter> tableWaiters) {
+        // Not persisted.
+        return 0;
+    }
+
+    @Override
+    public void createTable(Table table) {
+        // Not persisted.
+    }
+
+    @Override
+    public void createWaiter(Waiter waiter) {
+        // Not persisted.
+    }
+
+    @Override
+    public ProvisioningResult provision(Set<Table> tables, Set<Waiter> waiters) {
+        // Not persisted.
+        return new ProvisioningResult(0, 0, 0, 0);
+    }
+
+    @Override
+    public Set<Table> loadTables() {
+        return benchmarkData.getTables();
+    }
+
+    @Override
+    public Set<Waiter> loadWaiters() {
+        return new HashSet<>(benchmarkData.getWaiters());
+    }
+
+    @Override
+    public Map<Waiter, Set<Table>> loadWaiterTableAssignments() {
+        return benchmarkData.getWaiterTableAssignments();
+    }
+
+    @Override
+    public PersistedState loadAll() {
+        return new PersistedState(loadTables(), loadWaiters(), loadWaiterTableAssignments());
+    }
+
+    @Override
+    public Map<Table, Waiter> loadTableWaiters(Restaurant restaurant) {
+        final Map<Table, Waiter> result = new HashMap<>();
+        for (final Table table : benchmarkData.getTables()) {
+            if (table.getRestaurant().equals(restaurant)) {
+                result.put(table, null);
+            }
+        }
+
+        for (final Map.Entry<Waiter, Set<Table>> entry : benchmarkData.getWaiterTableAssignments().entrySet()) {
+            for (final Table table : entry.getValue()) {
+                if (table.getRestaurant().equals(restaurant)) {
+                    result.put(table, entry.getKey());
+                }
+            }
+        }
+
+        return result;
+    }
+
+    @Override
+    public long latestChangeId() {
+        // No changes.
+        return 0;
+    }
+
+    @Override
+    public long earliestChangeId() {
+        // No changes.
+        return 0;
+    }
+
+    @Override
+    public List<ChangeLogEntry> loadChanges(long afterId, int limit) {
+        // No changes.
+        return Collections.emptyList();
+    }
+
+    @Override
+    public void pruneChanges(long beforeId) {
+        // No changes.
+    }
+
+    @Override
+    public CacheStatistics cacheStatistics() {
+        // Not cached.
+        return new CacheStatistics(0, 0, 0, 0, 0, 0);
+    }
+}
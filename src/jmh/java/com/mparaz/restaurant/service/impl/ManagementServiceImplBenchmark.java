@@ -0,0 +1,143 @@
+package com.mparaz.restaurant.service.impl;
+
+import com.mparaz.restaurant.Restaurant;
+import com.mparaz.restaurant.Table;
+import com.mparaz.restaurant.Waiter;
+import com.mparaz.restaurant.service.Page;
+import com.mparaz.restaurant.service.TableFilter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks for the management service, with persistence served from memory.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = ManagementServiceImplBenchmark.WARMUP_ITERATIONS, time = 1)
+@Measurement(iterations = ManagementServiceImplBenchmark.MEASUREMENT_ITERATIONS, time = 1)
+@Fork(1)
+public class ManagementServiceImplBenchmark {
+
+    static final int WARMUP_ITERATIONS = 5;
+
+    static final int MEASUREMENT_ITERATIONS = 5;
+
+    private static final int PAGE_SIZE = 20;
+
+    @Param({"SMALL", "MEDIUM", "LARGE"})
+    private BenchmarkData.Size size;
+
+    private BenchmarkData benchmarkData;
+
+    private ManagementServiceImpl managementService;
+
+    /**
+     * Table in the second restaurant, passed around the waiters for the accepted path.
+     */
+    private Table acceptedTable;
+
+    private int acceptedWaiterIndex;
+
+    /**
+     * The first waiter, who is full in the first restaurant.
+     */
+    private Waiter rejectedWaiter;
+
+    /**
+     * Unassigned table in the first restaurant, for the rejected path.
+     */
+    private Table rejectedTable;
+
+    @Setup
+    public void setUp() {
+        benchmarkData = new BenchmarkData(size);
+        managementService = new ManagementServiceImpl(new InMemoryPersistenceService(benchmarkData));
+        managementService.load();
+
+        // Fill the first waiter up in the first restaurant with the unassigned (odd-numbered) tables,
+        // until an assignment is rejected. That table is then used for the rejected path.
+        rejectedWaiter = benchmarkData.getWaiter(0);
+        for (int j = 1;; j += 2) {
+            final Table table = benchmarkData.getTable(0, j);
+            if (!managementService.assignWaiter(rejectedWaiter, table).isEmpty()) {
+                rejectedTable = table;
+                break;
+            }
+        }
+
+        acceptedTable = benchmarkData.getTable(1, 0);
+    }
+
+    @TearDown
+    public void tearDown() {
+        managementService.close();
+    }
+
+    /**
+     * Reassigns a table to the next waiter each time. No waiter is full in the second restaurant,
+     * so this is always accepted.
+     */
+    @Benchmark
+    public Set<Waiter> assignWaiterAccepted() {
+        acceptedWaiterIndex = (acceptedWaiterIndex + 1) % benchmarkData.getWaiters().size();
+        return managementService.assignWaiter(benchmarkData.getWaiter(acceptedWaiterIndex), acceptedTable);
+    }
+
+    /**
+     * Assigns a table to a full waiter, which is rejected with suggestions.
+     */
+    @Benchmark
+    public Set<Waiter> assignWaiterRejected() {
+        return managementService.assignWaiter(rejectedWaiter, rejectedTable);
+    }
+
+    @Benchmark
+    public Set<Waiter> suggestOtherWaiters() {
+        return managementService.suggestOtherWaiters(rejectedWaiter, rejectedTable.getRestaurant());
+    }
+
+    @Benchmark
+    public Map<Table, Optional<Waiter>> displayAssignments() {
+        return managementService.displayAssignments(benchmarkData.getRestaurant(0));
+    }
+
+    @Benchmark
+    public Map<Waiter, Map<Restaurant, Set<Table>>> displayTables() {
+        return managementService.displayTables();
+    }
+
+    /**
+     * A page of waiters from the middle, which should cost the same whatever the size.
+     */
+    @Benchmark
+    public Page<Map.Entry<Waiter, Map<Restaurant, Set<Table>>>> displayTablesPage() {
+        return managementService.displayTables(null, rejectedWaiter.getName(), PAGE_SIZE);
+    }
+
+    @Benchmark
+    public Page<Map.Entry<Table, Optional<Waiter>>> displayAssignmentsPage() {
+        return managementService.displayAssignments(rejectedTable.getRestaurant().getName(), TableFilter.UNASSIGNED,
+                null, PAGE_SIZE);
+    }
+
+    @Benchmark
+    public Map<Restaurant, Set<Table>> displayTablesForWaiter() {
+        return managementService.displayTables(rejectedWaiter);
+    }
+}
@@ -0,0 +1,196 @@
+package com.mparaz.restaurant.service.impl;
+
+import com.mparaz.restaurant.RestaurantApplication;
+import com.mparaz.restaurant.Table;
+import com.mparaz.restaurant.Waiter;
+import com.mparaz.restaurant.persistence.RestaurantEntity;
+import com.mparaz.restaurant.persistence.RestaurantEntityRepository;
+import com.mparaz.restaurant.persistence.TableEntity;
+import com.mparaz.restaurant.persistence.TableEntityRepository;
+import com.mparaz.restaurant.persistence.WaiterEntity;
+import com.mparaz.restaurant.persistence.WaiterEntityRepository;
+import com.mparaz.restaurant.service.PersistedState;
+import com.mparaz.restaurant.service.PersistenceService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks for loading from persistence, against an in-memory H2 database.
+ * <p>
+ * The lookup benchmark runs against the migrated schema. To compare with the schema before its indexes,
+ * migrate only to the first version, with -jvmArgs -Dflyway.target=1.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = PersistenceServiceImplBenchmark.WARMUP_ITERATIONS, time = 1)
+@Measurement(iterations = PersistenceServiceImplBenchmark.MEASUREMENT_ITERATIONS, time = 1)
+@Fork(1)
+public class PersistenceServiceImplBenchmark {
+
+    static final int WARMUP_ITERATIONS = 3;
+
+    static final int MEASUREMENT_ITERATIONS = 5;
+
+    /**
+     * Table IDs per range when loading everything, so that the largest size has several ranges.
+     */
+    private static final int LOAD_PARTITION_SIZE = 10000;
+
+    @Param({"SMALL", "MEDIUM", "LARGE"})
+    private BenchmarkData.Size size;
+
+    /**
+     * Queries run at once when loading everything, to compare with loading one range at a time.
+     */
+    @Param({"1", "4"})
+    private int loadThreads;
+
+    private ConfigurableApplicationContext applicationContext;
+
+    private PersistenceService persistenceService;
+
+    private TransactionTemplate transactionTemplate;
+
+    private TableEntityRepository tableEntityRepository;
+
+    /**
+     * All tables, looked up in turn.
+     */
+    private final List<TableEntity> tableEntities = new ArrayList<>();
+
+    private int lookupIndex;
+
+    @Setup
+    public void setUp() {
+        // Arguments, to take precedence over application.properties.
+        applicationContext = new SpringApplicationBuilder(RestaurantApplication.class)
+                .web(false)
+                .run("--spring.datasource.url=jdbc:h2:mem:benchmark",
+                        "--spring.jpa.properties.hibernate.cache.use_query_cache=false",
+                        "--logging.level.org.hibernate.SQL=WARN",
+                        "--restaurant.load.threads=" + loadThreads,
+                        "--restaurant.load.partition-size=" + LOAD_PARTITION_SIZE);
+
+        persistenceService = applicationContext.getBean(PersistenceService.class);
+        tableEntityRepository = applicationContext.getBean(TableEntityRepository.class);
+        transactionTemplate = new TransactionTemplate(applicationContext.getBean(PlatformTransactionManager.class));
+
+        // Populate through the repositories in one transaction, since this is not what is measured.
+        final BenchmarkData benchmarkData = new BenchmarkData(size);
+        transactionTemplate.execute(status -> {
+            populate(benchmarkData);
+            return null;
+        });
+    }
+
+    private void populate(BenchmarkData benchmarkData) {
+        final RestaurantEntityRepository restaurantEntityRepository =
+                applicationContext.getBean(RestaurantEntityRepository.class);
+        final WaiterEntityRepository waiterEntityRepository =
+                applicationContext.getBean(WaiterEntityRepository.class);
+
+        final Map<Waiter, WaiterEntity> waiterEntities = new HashMap<>();
+        for (final Waiter waiter : benchmarkData.getWaiters()) {
+            final WaiterEntity waiterEntity = new WaiterEntity();
+            waiterEntity.setName(waiter.getName());
+            waiterEntities.put(waiter, waiterEntityRepository.save(waiterEntity));
+        }
+
+        final Map<Table, Waiter> tableWaiterAssignments = new HashMap<>();
+        for (final Map.Entry<Waiter, Set<Table>> entry : benchmarkData.getWaiterTableAssignments().entrySet()) {
+            for (final Table table : entry.getValue()) {
+                tableWaiterAssignments.put(table, entry.getKey());
+            }
+        }
+
+        final Map<String, RestaurantEntity> restaurantEntities = new HashMap<>();
+        for (final Table table : benchmarkData.getTables()) {
+            final RestaurantEntity restaurantEntity =
+                    restaurantEntities.computeIfAbsent(table.getRestaurant().getName(), name -> {
+                        final RestaurantEntity newRestaurantEntity = new RestaurantEntity();
+                        newRestaurantEntity.setName(name);
+                        return restaurantEntityRepository.save(newRestaurantEntity);
+                    });
+
+            final TableEntity tableEntity = new TableEntity();
+            tableEntity.setNumber(table.getNumber());
+            tableEntity.setRestaurant(restaurantEntity);
+
+            final Waiter waiter = tableWaiterAssignments.get(table);
+            if (waiter != null) {
+                tableEntity.setWaiter(waiterEntities.get(waiter));
+            }
+
+            final TableEntity savedTableEntity = tableEntityRepository.save(tableEntity);
+            tableEntities.add(savedTableEntity);
+            restaurantEntity.getTables().add(savedTableEntity);
+            if (waiter != null) {
+                waiterEntities.get(waiter).getTables().add(savedTableEntity);
+            }
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        applicationContext.close();
+    }
+
+    // Each load runs in a transaction, as it would in a web request with the session open in the view.
+
+    @Benchmark
+    public Set<Table> loadTables() {
+        return transactionTemplate.execute(status -> persistenceService.loadTables());
+    }
+
+    @Benchmark
+    public Set<Waiter> loadWaiters() {
+        return transactionTemplate.execute(status -> persistenceService.loadWaiters());
+    }
+
+    @Benchmark
+    public Map<Waiter, Set<Table>> loadWaiterTableAssignments() {
+        return transactionTemplate.execute(status -> persistenceService.loadWaiterTableAssignments());
+    }
+
+    @Benchmark
+    public PersistedState loadAll() {
+        return persistenceService.loadAll();
+    }
+
+    /**
+     * Look up one table by restaurant and number, as assigning does, bypassing the query cache.
+     * Should not depend on the number of tables.
+     */
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public Optional<TableEntity> findTableByNumberAndRestaurant() {
+        final TableEntity tableEntity = tableEntities.get(lookupIndex);
+        lookupIndex = (lookupIndex + 1) % tableEntities.size();
+
+        return transactionTemplate.execute(status ->
+                tableEntityRepository.findByNumberAndRestaurant(tableEntity.getNumber(), tableEntity.getRestaurant()));
+    }
+}
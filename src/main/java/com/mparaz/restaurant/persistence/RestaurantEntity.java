@@ -1,5 +1,9 @@
 package com.mparaz.restaurant.persistence;
 
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
+
+import javax.persistence.Cacheable;
 import javax.persistence.Column;
 import javax.persistence.Entity;
 import javax.persistence.GeneratedValue;
@@ -11,6 +15,8 @@ import java.util.Set;
 /**
  * Restaurant, persistence entity.
  */
+@Cacheable
+@Cache(usage = CacheConcurrencyStrategy.READ_WRITE)
 @Entity(name = "restaurant")
 public class RestaurantEntity {
     @Id
@@ -1,12 +1,19 @@
 package com.mparaz.restaurant.persistence;
 
+import org.springframework.data.jpa.repository.QueryHints;
 import org.springframework.data.repository.CrudRepository;
 
+import javax.persistence.QueryHint;
+
 import java.util.Optional;
 
 /**
  * RestaurantEntity repository using Spring Data.
  */
 public interface RestaurantEntityRepository extends CrudRepository<RestaurantEntity, Long> {
+    /**
+     * Cached in the query cache, as restaurants are rarely added.
+     */
+    @QueryHints(@QueryHint(name = "org.hibernate.cacheable", value = "true"))
     Optional<RestaurantEntity> findByName(String name);
 }
@@ -1,14 +1,25 @@
 package com.mparaz.restaurant.persistence;
 
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
+
+import javax.persistence.Cacheable;
 import javax.persistence.Entity;
 import javax.persistence.GeneratedValue;
 import javax.persistence.Id;
 import javax.persistence.ManyToOne;
+import javax.persistence.Table;
+import javax.persistence.UniqueConstraint;
+import javax.persistence.Version;
 
 /**
- * Table model entity.
+ * Table model entity. The number is unique within a restaurant.
  */
+@Cacheable
+@Cache(usage = CacheConcurrencyStrategy.READ_WRITE)
 @Entity(name = "restaurant_table")
+@Table(uniqueConstraints = @UniqueConstraint(name = "uk_restaurant_table_restaurant_number",
+        columnNames = {"restaurant_id", "number"}))
 public class TableEntity {
 
     @Id
@@ -29,6 +40,12 @@ public class TableEntity {
     @ManyToOne
     private WaiterEntity waiter;
 
+    /**
+     * Increased on every assignment, so that concurrent assignments of the table conflict.
+     */
+    @Version
+    private long version;
+
     public Long getId() {
         return id;
     }
@@ -60,4 +77,8 @@ public class TableEntity {
     public void setWaiter(WaiterEntity waiter) {
         this.waiter = waiter;
     }
+
+    public long getVersion() {
+        return version;
+    }
 }
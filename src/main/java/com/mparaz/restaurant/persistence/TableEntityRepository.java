@@ -1,12 +1,68 @@
 package com.mparaz.restaurant.persistence;
 
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
 import org.springframework.data.repository.CrudRepository;
 
+import javax.persistence.QueryHint;
+import java.util.List;
 import java.util.Optional;
 
 /**
  * TableEntity repository using Spring Data.
  */
 public interface TableEntityRepository extends CrudRepository<TableEntity, Long> {
+    /**
+     * Cached in the query cache, as tables are rarely added.
+     * The restaurant is compared by its foreign key rather than joined, so that the lookup uses the
+     * (restaurant_id, number) index.
+     */
+    @Query("select t from restaurant_table t where t.restaurant = ?2 and t.number = ?1")
+    @QueryHints(@QueryHint(name = "org.hibernate.cacheable", value = "true"))
     Optional<TableEntity> findByNumberAndRestaurant(String number, RestaurantEntity restaurantEntity);
+
+    /**
+     * All tables in one query, without loading entities.
+     *
+     * @return table number and restaurant name for each table.
+     */
+    @Query("select t.number, r.name from restaurant_table t join t.restaurant r")
+    List<Object[]> findAllNumbersAndRestaurantNames();
+
+    /**
+     * Lowest table ID, to partition loading by ID range.
+     *
+     * @return null if there are no tables.
+     */
+    @Query("select min(t.id) from restaurant_table t")
+    Long findMinId();
+
+    /**
+     * Highest table ID, to partition loading by ID range.
+     *
+     * @return null if there are no tables.
+     */
+    @Query("select max(t.id) from restaurant_table t")
+    Long findMaxId();
+
+    /**
+     * Tables in a range of IDs with their waiters in one query, without loading entities.
+     *
+     * @param fromId lowest ID, inclusive
+     * @param toId highest ID, exclusive
+     * @return table number, restaurant name, waiter name or null, table ID and version for each table.
+     */
+    @Query("select t.number, r.name, w.name, t.id, t.version from restaurant_table t join t.restaurant r"
+            + " left join t.waiter w where t.id >= ?1 and t.id < ?2")
+    List<Object[]> findNumbersRestaurantNamesWaiterNamesIdsAndVersionsByIdRange(long fromId, long toId);
+
+    /**
+     * Tables of a restaurant with their waiters in one query, without loading entities.
+     *
+     * @param restaurantName
+     * @return table number, restaurant name, waiter name or null, table ID and version for each table.
+     */
+    @Query("select t.number, r.name, w.name, t.id, t.version from restaurant_table t join t.restaurant r"
+            + " left join t.waiter w where r.name = ?1")
+    List<Object[]> findNumbersRestaurantNamesWaiterNamesIdsAndVersionsByRestaurantName(String restaurantName);
 }
@@ -1,16 +1,24 @@
 package com.mparaz.restaurant.persistence;
 
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
+import org.hibernate.annotations.OptimisticLock;
+
+import javax.persistence.Cacheable;
 import javax.persistence.Column;
 import javax.persistence.Entity;
 import javax.persistence.GeneratedValue;
 import javax.persistence.Id;
 import javax.persistence.OneToMany;
+import javax.persistence.Version;
 import java.util.HashSet;
 import java.util.Set;
 
 /**
  * Waiter model entity.
  */
+@Cacheable
+@Cache(usage = CacheConcurrencyStrategy.READ_WRITE)
 @Entity(name = "waiter")
 public class WaiterEntity {
     @Id
@@ -23,9 +31,20 @@ public class WaiterEntity {
     @Column(unique = true)
     private String name;
 
-    @OneToMany
+    /**
+     * Mapped by the table's waiter, which is the only side written.
+     * Changing it does not increase the version, which is increased directly when assigning.
+     */
+    @OneToMany(mappedBy = "waiter")
+    @OptimisticLock(excluded = true)
     private Set<TableEntity> tables = new HashSet<>();
 
+    /**
+     * Increased on every assignment to the waiter, so that concurrent assignments to the waiter wait for each other.
+     */
+    @Version
+    private long version;
+
     public Long getId() {
         return id;
     }
@@ -49,4 +68,8 @@ public class WaiterEntity {
     public void setTables(Set<TableEntity> tables) {
         this.tables = tables;
     }
+
+    public long getVersion() {
+        return version;
+    }
 }
@@ -1,12 +1,37 @@
 package com.mparaz.restaurant.persistence;
 
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
 import org.springframework.data.repository.CrudRepository;
 
+import javax.persistence.QueryHint;
+import java.util.List;
 import java.util.Optional;
 
 /**
  * WaiterEntity repository using Spring Data.
  */
 public interface WaiterEntityRepository extends CrudRepository<WaiterEntity, Long> {
+    /**
+     * Cached in the query cache, as waiters are rarely added.
+     */
+    @QueryHints(@QueryHint(name = "org.hibernate.cacheable", value = "true"))
     Optional<WaiterEntity> findByName(String name);
+
+    /**
+     * All waiters with their tables in one query, without loading entities.
+     *
+     * @return waiter name, table number and restaurant name for each of a waiter's tables,
+     *     or the waiter name and nulls for a waiter with no tables.
+     */
+    @Query("select w.name, t.number, r.name from waiter w left join w.tables t left join t.restaurant r")
+    List<Object[]> findAllNamesWithTableNumbersAndRestaurantNames();
+
+    /**
+     * All waiter names and IDs, without loading entities.
+     *
+     * @return waiter name and ID for each waiter.
+     */
+    @Query("select w.name, w.id from waiter w")
+    List<Object[]> findAllNamesAndIds();
 }
@@ -0,0 +1,47 @@
+package com.mparaz.restaurant.service;
+
+/**
+ * An assignment of a waiter to a table in a batch, by name.
+ * <p>
+ * Example: {"waiterName": "Waiter1", "restaurantName": "Restaurant1", "tableNumber": "Table1"}
+ */
+public class AssignmentRequest {
+    private String waiterName;
+
+    private String restaurantName;
+
+    private String tableNumber;
+
+    public AssignmentRequest() {
+    }
+
+    public AssignmentRequest(String waiterName, String restaurantName, String tableNumber) {
+        this.waiterName = waiterName;
+        this.restaurantName = restaurantName;
+        this.tableNumber = tableNumber;
+    }
+
+    public String getWaiterName() {
+        return waiterName;
+    }
+
+    public void setWaiterName(String waiterName) {
+        this.waiterName = waiterName;
+    }
+
+    public String getRestaurantName() {
+        return restaurantName;
+    }
+
+    public void setRestaurantName(String restaurantName) {
+        this.restaurantName = restaurantName;
+    }
+
+    public String getTableNumber() {
+        return tableNumber;
+    }
+
+    public void setTableNumber(String tableNumber) {
+        this.tableNumber = tableNumber;
+    }
+}
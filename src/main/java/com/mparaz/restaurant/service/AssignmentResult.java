@@ -0,0 +1,99 @@
+package com.mparaz.restaurant.service;
+
+import com.mparaz.restaurant.Waiter;
+
+import java.util.Collections;
+import java.util.Set;
+
+/**
+ * Result of one assignment in a batch.
+ */
+public class AssignmentResult {
+
+    /**
+     * Outcome of an assignment in a batch.
+     */
+    public enum Status {
+        /**
+         * Assigned and persisted.
+         */
+        ASSIGNED,
+
+        /**
+         * The waiter would have too many tables in the restaurant after the batch. Suggestions are provided.
+         */
+        REJECTED,
+
+        /**
+         * Not applied because another assignment in the same restaurant was rejected.
+         */
+        NOT_APPLIED,
+
+        /**
+         * The waiter or table is not known.
+         */
+        NOT_FOUND,
+
+        /**
+         * Not applied because the same table is assigned again later in the batch.
+         */
+        SUPERSEDED
+    }
+
+    private final String waiterName;
+
+    private final String restaurantName;
+
+    private final String tableNumber;
+
+    private final Status status;
+
+    /**
+     * Alternate waiters if rejected, otherwise empty.
+     */
+    private final Set<Waiter> suggestions;
+
+    public AssignmentResult(String waiterName, String restaurantName, String tableNumber, Status status,
+                            Set<Waiter> suggestions) {
+        this.waiterName = waiterName;
+        this.restaurantName = restaurantName;
+        this.tableNumber = tableNumber;
+        this.status = status;
+        this.suggestions = suggestions;
+    }
+
+    public AssignmentResult(String waiterName, String restaurantName, String tableNumber, Status status) {
+        this(waiterName, restaurantName, tableNumber, status, Collections.emptySet());
+    }
+
+    public String getWaiterName() {
+        return waiterName;
+    }
+
+    public String getRestaurantName() {
+        return restaurantName;
+    }
+
+    public String getTableNumber() {
+        return tableNumber;
+    }
+
+    public Status getStatus() {
+        return status;
+    }
+
+    public Set<Waiter> getSuggestions() {
+        return suggestions;
+    }
+
+    @Override
+    public String toString() {
+        return "AssignmentResult{"
+                + "waiterName='" + waiterName + '\''
+                + ", restaurantName='" + restaurantName + '\''
+                + ", tableNumber='" + tableNumber + '\''
+                + ", status=" + status
+                + ", suggestions=" + suggestions
+                + '}';
+    }
+}
@@ -0,0 +1,65 @@
+package com.mparaz.restaurant.service;
+
+/**
+ * Hit, miss and put counts of the second-level entity cache and the query cache, since startup.
+ */
+public class CacheStatistics {
+    private final long secondLevelCacheHitCount;
+
+    private final long secondLevelCacheMissCount;
+
+    private final long secondLevelCachePutCount;
+
+    private final long queryCacheHitCount;
+
+    private final long queryCacheMissCount;
+
+    private final long queryCachePutCount;
+
+    public CacheStatistics(long secondLevelCacheHitCount, long secondLevelCacheMissCount,
+                           long secondLevelCachePutCount, long queryCacheHitCount, long queryCacheMissCount,
+                           long queryCachePutCount) {
+        this.secondLevelCacheHitCount = secondLevelCacheHitCount;
+        this.secondLevelCacheMissCount = secondLevelCacheMissCount;
+        this.secondLevelCachePutCount = secondLevelCachePutCount;
+        this.queryCacheHitCount = queryCacheHitCount;
+        this.queryCacheMissCount = queryCacheMissCount;
+        this.queryCachePutCount = queryCachePutCount;
+    }
+
+    public long getSecondLevelCacheHitCount() {
+        return secondLevelCacheHitCount;
+    }
+
+    public long getSecondLevelCacheMissCount() {
+        return secondLevelCacheMissCount;
+    }
+
+    public long getSecondLevelCachePutCount() {
+        return secondLevelCachePutCount;
+    }
+
+    public long getQueryCacheHitCount() {
+        return queryCacheHitCount;
+    }
+
+    public long getQueryCacheMissCount() {
+        return queryCacheMissCount;
+    }
+
+    public long getQueryCachePutCount() {
+        return queryCachePutCount;
+    }
+
+    @Override
+    public String toString() {
+        return "CacheStatistics{"
+                + "secondLevelCacheHitCount=" + secondLevelCacheHitCount
+                + ", secondLevelCacheMissCount=" + secondLevelCacheMissCount
+                + ", secondLevelCachePutCount=" + secondLevelCachePutCount
+                + ", queryCacheHitCount=" + queryCacheHitCount
+                + ", queryCacheMissCount=" + queryCacheMissCount
+                + ", queryCachePutCount=" + queryCachePutCount
+                + '}';
+    }
+}
@@ -0,0 +1,78 @@
+package com.mparaz.restaurant.service;
+
+import com.mparaz.restaurant.Table;
+import com.mparaz.restaurant.Waiter;
+
+/**
+ * A persisted change to the tables, waiters or assignments, numbered in the order it was made.
+ * Lets an instance apply the changes made by others, without loading everything again.
+ */
+public class ChangeLogEntry {
+
+    /**
+     * What changed.
+     */
+    public enum Kind {
+        /**
+         * A table was created.
+         */
+        TABLE,
+
+        /**
+         * A waiter was created.
+         */
+        WAITER,
+
+        /**
+         * A waiter was assigned to a table.
+         */
+        ASSIGNMENT
+    }
+
+    private final long id;
+
+    private final Kind kind;
+
+    /**
+     * Null for a waiter change.
+     */
+    private final Table table;
+
+    /**
+     * Null for a table change.
+     */
+    private final Waiter waiter;
+
+    public ChangeLogEntry(long id, Kind kind, Table table, Waiter waiter) {
+        this.id = id;
+        this.kind = kind;
+        this.table = table;
+        this.waiter = waiter;
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    public Kind getKind() {
+        return kind;
+    }
+
+    public Table getTable() {
+        return table;
+    }
+
+    public Waiter getWaiter() {
+        return waiter;
+    }
+
+    @Override
+    public String toString() {
+        return "ChangeLogEntry{"
+                + "id=" + id
+                + ", kind=" + kind
+                + ", table=" + table
+                + ", waiter=" + waiter
+                + '}';
+    }
+}
@@ -4,6 +4,7 @@ import com.mparaz.restaurant.Restaurant;
 import com.mparaz.restaurant.Table;
 import com.mparaz.restaurant.Waiter;
 
+import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
@@ -28,6 +29,25 @@ public interface ManagementService {
      */
     Set<Waiter> assignWaiter(String waiterName, String restaurantName, String tableName);
 
+    /**
+     * Assign waiters to tables in one pass. The constraint is checked against the combined result,
+     * so tables can be swapped between waiters who are at the maximum.
+     * The assignments in a restaurant are applied all or nothing, and all applied ones are persisted together.
+     *
+     * @param tableWaiters the waiter to assign to each table
+     * @return a result for each table, in the same order.
+     */
+    List<AssignmentResult> assignWaiters(Map<Table, Waiter> tableWaiters);
+
+    /**
+     * Assign waiters to tables in one pass, based on String parameters.
+     * If a table appears more than once, only the last one is applied.
+     *
+     * @param assignmentRequests
+     * @return a result for each request, in the same order.
+     */
+    List<AssignmentResult> assignWaitersByName(List<AssignmentRequest> assignmentRequests);
+
     /**
      * Display the assignments between tables and their waiters.
      *
@@ -44,18 +64,42 @@ public interface ManagementService {
      */
     Map<Table, Optional<Waiter>> displayAssignments(String restaurantName);
 
+    /**
+     * Display a page of a restaurant's tables and their waiters, in table number order.
+     *
+     * @param restaurantName
+     * @param tableFilter which tables to include
+     * @param after the table number to start after, or null to start from the first
+     * @param limit maximum number of tables
+     * @return the tables with their waiter, or empty if none. Empty if the restaurant is not known.
+     */
+    Page<Map.Entry<Table, Optional<Waiter>>> displayAssignments(String restaurantName, TableFilter tableFilter,
+                                                              String after, int limit);
+
     /**
      * Display the tables for all waiters grouped by Restaurant.
      *
-     * @return
+     * @return an unmodifiable view, in which each waiter's tables are an immutable snapshot, but may be replaced
+     *     by later ones while iterating
      */
     Map<Waiter, Map<Restaurant, Set<Table>>> displayTables();
 
+    /**
+     * Display a page of waiters with their tables grouped by Restaurant, in waiter name order.
+     *
+     * @param restaurantName only waiters with tables in this restaurant, and only those tables, or null for all
+     * @param after the waiter name to start after, or null to start from the first
+     * @param limit maximum number of waiters
+     * @return
+     */
+    Page<Map.Entry<Waiter, Map<Restaurant, Set<Table>>>> displayTables(String restaurantName, String after,
+                                                                       int limit);
+
     /**
      * Display the tables for a waiter grouped by Restaurant.
      *
      * @param waiter
-     * @return
+     * @return an unmodifiable snapshot
      */
     Map<Restaurant, Set<Table>> displayTables(Waiter waiter);
 
@@ -67,4 +111,34 @@ public interface ManagementService {
      * @return
      */
     Map<Restaurant, Set<Table>> displayTables(String waiterName);
+
+    /**
+     * Version of the assignments of all waiters, increased whenever any of them change.
+     *
+     * @return
+     */
+    long version();
+
+    /**
+     * Version of a restaurant's assignments, increased whenever they change.
+     *
+     * @param restaurantName
+     * @return 0 if never changed or not known
+     */
+    long restaurantVersion(String restaurantName);
+
+    /**
+     * Version of a waiter's assignments, increased whenever they change.
+     *
+     * @param waiterName
+     * @return 0 if never changed or not known
+     */
+    long waiterVersion(String waiterName);
+
+    /**
+     * Whether the state has been loaded at startup. Until then, the other methods throw {@link NotReadyException}.
+     *
+     * @return
+     */
+    Readiness readiness();
 }
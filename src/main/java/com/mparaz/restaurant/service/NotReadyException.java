@@ -0,0 +1,13 @@
+package com.mparaz.restaurant.service;
+
+/**
+ * Thrown by a request that arrives before the state has been loaded at startup.
+ */
+public class NotReadyException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    public NotReadyException() {
+        super("Still loading, not ready for requests");
+    }
+}
@@ -0,0 +1,30 @@
+package com.mparaz.restaurant.service;
+
+import java.util.List;
+
+/**
+ * A page of results, in name order, with the cursor for the next page.
+ *
+ * @param <T> result type
+ */
+public class Page<T> {
+    private final List<T> items;
+
+    /**
+     * Name of the last item, to pass as the cursor for the next page. Null if this is the last page.
+     */
+    private final String next;
+
+    public Page(List<T> items, String next) {
+        this.items = items;
+        this.next = next;
+    }
+
+    public List<T> getItems() {
+        return items;
+    }
+
+    public String getNext() {
+        return next;
+    }
+}
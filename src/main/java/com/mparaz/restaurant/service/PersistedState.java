@@ -0,0 +1,39 @@
+package com.mparaz.restaurant.service;
+
+import com.mparaz.restaurant.Table;
+import com.mparaz.restaurant.Waiter;
+
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Tables, waiters and their table assignments, loaded from persistence together.
+ */
+public class PersistedState {
+    private final Set<Table> tables;
+
+    private final Set<Waiter> waiters;
+
+    private final Map<Waiter, Set<Table>> waiterTableAssignments;
+
+    public PersistedState(Set<Table> tables, Set<Waiter> waiters, Map<Waiter, Set<Table>> waiterTableAssignments) {
+        this.tables = tables;
+        this.waiters = waiters;
+        this.waiterTableAssignments = waiterTableAssignments;
+    }
+
+    public Set<Table> getTables() {
+        return tables;
+    }
+
+    public Set<Waiter> getWaiters() {
+        return waiters;
+    }
+
+    /**
+     * Every waiter, with their tables or empty if none.
+     */
+    public Map<Waiter, Set<Table>> getWaiterTableAssignments() {
+        return waiterTableAssignments;
+    }
+}
@@ -1,8 +1,10 @@
 package com.mparaz.restaurant.service;
 
+import com.mparaz.restaurant.Restaurant;
 import com.mparaz.restaurant.Table;
 import com.mparaz.restaurant.Waiter;
 
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
@@ -14,8 +16,18 @@ public interface PersistenceService {
      * Assign a table to a waiter.
      * @param table
      * @param waiter
+     * @return the latest change ID seen by the transaction, at least that of the assignment, and lower than
+     * that of any later change to the table
      */
-    void assign(Table table, Waiter waiter);
+    long assign(Table table, Waiter waiter);
+
+    /**
+     * Assign tables to waiters, in one transaction.
+     * @param tableWaiters the waiter for each table
+     * @return the latest change ID seen by the transaction, at least that of every assignment, and lower than
+     * that of any later change to the tables
+     */
+    long assignAll(Map<Table, Waiter> tableWaiters);
 
     /**
      * Create a table, and its Restaurant if needed.
@@ -29,6 +41,14 @@ public interface PersistenceService {
      */
     void createWaiter(Waiter waiter);
 
+    /**
+     * Create tables, their Restaurants and waiters in bulk, skipping those that already exist.
+     * @param tables
+     * @param waiters
+     * @return the rows created.
+     */
+    ProvisioningResult provision(Set<Table> tables, Set<Waiter> waiters);
+
     /**
      * Load tables.
      *
@@ -45,4 +65,50 @@ public interface PersistenceService {
      * @return
      */
     Map<Waiter, Set<Table>> loadWaiterTableAssignments();
+
+    /**
+     * Load tables, waiters and their table assignments together, in queries run at once.
+     * Within a transaction, they run in it one after another instead.
+     * @return
+     */
+    PersistedState loadAll();
+
+    /**
+     * Load the waiter of each table in a restaurant.
+     * @param restaurant
+     * @return the waiter of each table, or null if not assigned
+     */
+    Map<Table, Waiter> loadTableWaiters(Restaurant restaurant);
+
+    /**
+     * The ID of the latest change in the change log.
+     * @return 0 if none
+     */
+    long latestChangeId();
+
+    /**
+     * The ID of the earliest change still in the change log, since older ones are pruned.
+     * @return 0 if none
+     */
+    long earliestChangeId();
+
+    /**
+     * Load changes from the change log.
+     * @param afterId only changes after this ID
+     * @param limit maximum number of changes
+     * @return the changes in ID order.
+     */
+    List<ChangeLogEntry> loadChanges(long afterId, int limit);
+
+    /**
+     * Delete old changes from the change log.
+     * @param beforeId only changes before this ID
+     */
+    void pruneChanges(long beforeId);
+
+    /**
+     * Hit and miss counts of the entity and query caches.
+     * @return
+     */
+    CacheStatistics cacheStatistics();
 }
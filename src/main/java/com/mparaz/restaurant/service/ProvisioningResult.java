@@ -0,0 +1,61 @@
+package com.mparaz.restaurant.service;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Result of bulk provisioning: the rows created and how fast.
+ */
+public class ProvisioningResult {
+    private final int restaurantsCreated;
+
+    private final int tablesCreated;
+
+    private final int waitersCreated;
+
+    private final long elapsedNanos;
+
+    public ProvisioningResult(int restaurantsCreated, int tablesCreated, int waitersCreated, long elapsedNanos) {
+        this.restaurantsCreated = restaurantsCreated;
+        this.tablesCreated = tablesCreated;
+        this.waitersCreated = waitersCreated;
+        this.elapsedNanos = elapsedNanos;
+    }
+
+    public int getRestaurantsCreated() {
+        return restaurantsCreated;
+    }
+
+    public int getTablesCreated() {
+        return tablesCreated;
+    }
+
+    public int getWaitersCreated() {
+        return waitersCreated;
+    }
+
+    public long getElapsedMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(elapsedNanos);
+    }
+
+    /**
+     * Rows created per second, over the whole provisioning including lookups.
+     */
+    public double getRowsPerSecond() {
+        if (elapsedNanos <= 0) {
+            return 0;
+        }
+
+        return (restaurantsCreated + tablesCreated + waitersCreated) * (double) TimeUnit.SECONDS.toNanos(1)
+                / elapsedNanos;
+    }
+
+    @Override
+    public String toString() {
+        return "ProvisioningResult{"
+                + "restaurantsCreated=" + restaurantsCreated
+                + ", tablesCreated=" + tablesCreated
+                + ", waitersCreated=" + waitersCreated
+                + ", elapsedNanos=" + elapsedNanos
+                + '}';
+    }
+}
@@ -0,0 +1,47 @@
+package com.mparaz.restaurant.service;
+
+/**
+ * Whether the loaded state is ready to serve requests, and how long loading it took.
+ */
+public class Readiness {
+
+    /**
+     * Whether loading has finished.
+     */
+    public enum Status {
+        /**
+         * Not yet loaded. Requests are rejected.
+         */
+        LOADING,
+
+        /**
+         * Loaded and indexed.
+         */
+        READY,
+
+        /**
+         * Loading failed. Requests are rejected until restarted.
+         */
+        FAILED
+    }
+
+    private final Status status;
+
+    /**
+     * Time spent loading so far, or in total once ready or failed.
+     */
+    private final long loadMillis;
+
+    public Readiness(Status status, long loadMillis) {
+        this.status = status;
+        this.loadMillis = loadMillis;
+    }
+
+    public Status getStatus() {
+        return status;
+    }
+
+    public long getLoadMillis() {
+        return loadMillis;
+    }
+}
@@ -0,0 +1,10 @@
+package com.mparaz.restaurant.service;
+
+/**
+ * Which tables to display, by whether they have a waiter.
+ */
+public enum TableFilter {
+    ALL,
+    ASSIGNED,
+    UNASSIGNED
+}
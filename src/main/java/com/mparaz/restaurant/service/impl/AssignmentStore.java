@@ -0,0 +1,67 @@
+package com.mparaz.restaurant.service.impl;
+
+import com.mparaz.restaurant.Restaurant;
+import com.mparaz.restaurant.Table;
+import com.mparaz.restaurant.Waiter;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The waiter of each table, and the number of each waiter's tables per restaurant, for the management service.
+ * <p>
+ * A table's waiter can be read without locking. Assigning, and reading the counts of a restaurant, must hold
+ * the restaurant's lock. Tables and waiters not yet added are added when first assigned.
+ */
+interface AssignmentStore {
+    /**
+     * Add tables and waiters, so that adding them is not paid for when they are first assigned.
+     * Ones already added are skipped.
+     *
+     * @param tables
+     * @param waiters
+     */
+    void add(Collection<Table> tables, Collection<Waiter> waiters);
+
+    /**
+     * Assign the loaded tables of each waiter, before the store is used by other threads.
+     *
+     * @param waiterTables
+     */
+    void load(Map<Waiter, Set<Table>> waiterTables);
+
+    /**
+     * The waiter of a table.
+     *
+     * @param table
+     * @return null if not assigned
+     */
+    Waiter waiterOf(Table table);
+
+    /**
+     * Assign a waiter to a table, unassigning the previous waiter, and update both waiters' counts.
+     *
+     * @param table
+     * @param waiter
+     * @return the previous waiter, or null if none
+     */
+    Waiter assign(Table table, Waiter waiter);
+
+    /**
+     * Unassign a table's waiter, and update the waiter's count.
+     *
+     * @param table
+     * @return the previous waiter, or null if none
+     */
+    Waiter unassign(Table table);
+
+    /**
+     * The number of tables assigned to a waiter in a restaurant.
+     *
+     * @param restaurant
+     * @param waiter
+     * @return
+     */
+    int tableCount(Restaurant restaurant, Waiter waiter);
+}
@@ -0,0 +1,86 @@
+package com.mparaz.restaurant.service.impl;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+/**
+ * Configuration of refreshing from the change log, from restaurant.change-log.* properties.
+ */
+@Component
+@ConfigurationProperties(prefix = "restaurant.change-log")
+public class ChangeLogProperties {
+    private static final long DEFAULT_POLL_INTERVAL_MILLIS = 1000;
+
+    private static final long DEFAULT_GAP_TIMEOUT_MILLIS = 10000;
+
+    private static final long DEFAULT_RETENTION = 100000;
+
+    private static final long DEFAULT_PRUNE_INTERVAL_MILLIS = 60000;
+
+    /**
+     * When disabled, changes by other instances are not seen after the first load. Changes are still logged
+     * and pruned.
+     */
+    private boolean enabled = true;
+
+    /**
+     * How long to wait between reading new changes.
+     */
+    private long pollIntervalMillis = DEFAULT_POLL_INTERVAL_MILLIS;
+
+    /**
+     * How long to wait for a missing change, which may be in a transaction not yet committed,
+     * before assuming it was rolled back.
+     */
+    private long gapTimeoutMillis = DEFAULT_GAP_TIMEOUT_MILLIS;
+
+    /**
+     * Number of latest changes kept. An instance further behind reloads everything instead.
+     */
+    private long retention = DEFAULT_RETENTION;
+
+    /**
+     * How long to wait between pruning changes beyond the retention, whether or not they are read.
+     */
+    private long pruneIntervalMillis = DEFAULT_PRUNE_INTERVAL_MILLIS;
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public long getPollIntervalMillis() {
+        return pollIntervalMillis;
+    }
+
+    public void setPollIntervalMillis(long pollIntervalMillis) {
+        this.pollIntervalMillis = pollIntervalMillis;
+    }
+
+    public long getGapTimeoutMillis() {
+        return gapTimeoutMillis;
+    }
+
+    public void setGapTimeoutMillis(long gapTimeoutMillis) {
+        this.gapTimeoutMillis = gapTimeoutMillis;
+    }
+
+    public long getRetention() {
+        return retention;
+    }
+
+    public void setRetention(long retention) {
+        this.retention = retention;
+    }
+
+    public long getPruneIntervalMillis() {
+        return pruneIntervalMillis;
+    }
+
+    public void setPruneIntervalMillis(long pruneIntervalMillis) {
+        this.pruneIntervalMillis = pruneIntervalMillis;
+    }
+}
@@ -0,0 +1,101 @@
+package com.mparaz.restaurant.service.impl;
+
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Bounded cache of entity IDs, or IDs with versions, by model object. Thread-safe, and reads take no lock,
+ * since every assignment reads it. When full, caching a new ID evicts an arbitrary one, rather than tracking use
+ * on every read. The bound is approximate, since concurrent puts may each see room.
+ * <p>
+ * IDs are only cached once their transaction commits, so that a rolled back row is never cached.
+ * Rows are never deleted by the application, so a cached ID stays valid unless the row is deleted by other means.
+ * An entry is removed when its row is found absent, or changed since its version. Absent rows are not cached.
+ *
+ * @param <K> model object, such as a table or waiter, which must have value equality
+ * @param <V> ID, or ID with version
+ */
+class IdCache<K, V> {
+
+    private final int capacity;
+
+    private final Map<K, V> ids = new ConcurrentHashMap<>();
+
+    IdCache(int capacity) {
+        this.capacity = capacity;
+    }
+
+    /**
+     * The cached ID.
+     *
+     * @param key
+     * @return null if not cached
+     */
+    V get(K key) {
+        return ids.get(key);
+    }
+
+    /**
+     * Cache an ID when the current transaction commits, or now if there is none.
+     *
+     * @param key
+     * @param id
+     */
+    void putAfterCommit(K key, V id) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            put(key, id);
+            return;
+        }
+
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+            @Override
+            public void afterCommit() {
+                put(key, id);
+            }
+        });
+    }
+
+    /**
+     * Cache the ID of a committed row, such as one just loaded, only while there is room, so that seeding
+     * does not evict the IDs in use.
+     *
+     * @param key
+     * @param id
+     */
+    void seed(K key, V id) {
+        if (ids.size() < capacity) {
+            ids.putIfAbsent(key, id);
+        }
+    }
+
+    /**
+     * Forget an ID whose row was found not to exist.
+     *
+     * @param key
+     */
+    void remove(K key) {
+        ids.remove(key);
+    }
+
+    int size() {
+        return ids.size();
+    }
+
+    /**
+     * Cache an ID in use, evicting an arbitrary other one if full.
+     */
+    private void put(K key, V id) {
+        if ((ids.put(key, id) == null) && (ids.size() > capacity)) {
+            final Iterator<K> keys = ids.keySet().iterator();
+            while (keys.hasNext() && (ids.size() > capacity)) {
+                if (!keys.next().equals(key)) {
+                    keys.remove();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,39 @@
+package com.mparaz.restaurant.service.impl;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+/**
+ * Configuration of loading everything from persistence, from restaurant.load.* properties.
+ */
+@Component
+@ConfigurationProperties(prefix = "restaurant.load")
+public class LoadProperties {
+    private static final int DEFAULT_PARTITION_SIZE = 50000;
+
+    /**
+     * Maximum queries run at once, each in its own read-only transaction.
+     */
+    private int threads = Runtime.getRuntime().availableProcessors();
+
+    /**
+     * Table IDs per query. Tables are loaded in ranges of IDs, so that the ranges can be loaded at once.
+     */
+    private int partitionSize = DEFAULT_PARTITION_SIZE;
+
+    public int getThreads() {
+        return threads;
+    }
+
+    public void setThreads(int threads) {
+        this.threads = threads;
+    }
+
+    public int getPartitionSize() {
+        return partitionSize;
+    }
+
+    public void setPartitionSize(int partitionSize) {
+        this.partitionSize = partitionSize;
+    }
+}
@@ -3,18 +3,54 @@ package com.mparaz.restaurant.service.impl;
 import com.mparaz.restaurant.Restaurant;
 import com.mparaz.restaurant.Table;
 import com.mparaz.restaurant.Waiter;
+import com.mparaz.restaurant.service.AssignmentRequest;
+import com.mparaz.restaurant.service.AssignmentResult;
+import com.mparaz.restaurant.service.ChangeLogEntry;
 import com.mparaz.restaurant.service.ManagementService;
+import com.mparaz.restaurant.service.NotReadyException;
+import com.mparaz.restaurant.service.Page;
+import com.mparaz.restaurant.service.PersistedState;
 import com.mparaz.restaurant.service.PersistenceService;
+import com.mparaz.restaurant.service.Readiness;
+import com.mparaz.restaurant.service.TableFilter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.dao.ConcurrencyFailureException;
 import org.springframework.stereotype.Service;
 
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Objects;
 import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Function;
+import java.util.function.ToLongFunction;
 import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 /**
  * Management Service implementation.
@@ -22,93 +58,1465 @@ import java.util.stream.Collectors;
 @Service
 public class ManagementServiceImpl implements ManagementService {
 
-    private static final int MAX_TABLES_PER_RESTAURANT = 4;
+    private static final Logger LOGGER = LoggerFactory.getLogger(ManagementServiceImpl.class);
+
+    /**
+     * Maximum tables of a waiter in a restaurant. Package-private, since persistence checks it again.
+     */
+    static final int MAX_TABLES_PER_RESTAURANT = 4;
+
+    /**
+     * Attempts at persisting assignments that conflict with another instance's, before giving up.
+     */
+    private static final int MAX_ASSIGNMENT_ATTEMPTS = 4;
+
+    private static final long INITIAL_CONFLICT_BACKOFF_MILLIS = 10;
+
+    private static final long MAX_CONFLICT_BACKOFF_MILLIS = 100;
+
+    /**
+     * Number of lock stripes guarding assignments. Assignments are only constrained within a restaurant,
+     * so assignments to tables in different restaurants can proceed in parallel.
+     */
+    private static final int LOCK_STRIPES = 64;
+
+    /**
+     * Order of waiter names and table numbers in pages.
+     */
+    private static final Comparator<String> NAME_ORDER = Comparator.nullsFirst(Comparator.naturalOrder());
+
+    /**
+     * Changes read from the change log per query. Also how many changes before the latest are read again
+     * after loading, in case their transactions were not yet committed when loading.
+     */
+    private static final int CHANGE_BATCH_SIZE = 1000;
+
+    /**
+     * How long closing waits to restore assignments that failed to persist.
+     */
+    private static final long RESTORE_TIMEOUT_SECONDS = 30;
 
     private final PersistenceService persistenceService;
 
-    // Data is loaded from persistence, not at component construction but lazy-loaded at first use,
-    // so that data can be stored into persistence before it is used.
-    // Set initially to empty.
+    /**
+     * Persists assignments in the background, or null to persist them on the calling thread.
+     */
+    private final WriteBehindAssignmentWriter writeBehindAssignmentWriter;
+
+    /**
+     * Restores assignments that failed to persist in the background, or null without write-behind.
+     * Not on the assignment writer's thread, since restoring takes the restaurant locks, which are held while
+     * waiting to queue assignments.
+     */
+    private final ExecutorService assignmentRestorer;
+
+    /**
+     * Locks for assignments, selected by the restaurant of the table being assigned.
+     */
+    private final Object[] restaurantLocks = new Object[LOCK_STRIPES];
+
+    /**
+     * Guards the load from persistence.
+     */
+    private final Object loadLock = new Object();
+
+    /**
+     * Prunes the change log in the background, and reads it unless changes made after loading are not to be seen.
+     * Started once loaded, and null until then.
+     */
+    private volatile ScheduledExecutorService changeLogExecutor;
+
+    /**
+     * Guards refreshing from the change log.
+     */
+    private final Object refreshLock = new Object();
+
+    private final long changeGapTimeoutNanos;
+
+    private final long changeLogRetention;
+
+    private final ChangeLogProperties changeLogProperties;
+
+    /**
+     * The snapshot to load from and write to, or null to always load from persistence.
+     */
+    private final SnapshotFile snapshotFile;
+
+    private final SnapshotProperties snapshotProperties;
+
+    /**
+     * Writes snapshots in the background, or null if not periodically or not yet loaded.
+     */
+    private volatile ScheduledExecutorService snapshotWriter;
+
+    /**
+     * Guards starting the background jobs against closing.
+     */
+    private final Object lifecycleLock = new Object();
+
+    private boolean closed = false;
+
+    // Data is loaded from persistence in the background once the application has started, and requests are
+    // rejected until then. Set initially to empty.
+
+    // Written after the loaded data, so that readers seeing true also see the data.
+    private volatile boolean loaded = false;
+
+    private volatile boolean loadStarted = false;
+
+    private volatile boolean loadFailed = false;
+
+    private volatile long loadStartNanos;
+
+    private volatile long loadMillis;
+
+    // Replaced with copies when tables or waiters are added from the change log.
+
+    private volatile Set<Table> tables = Collections.emptySet();
+
+    private volatile Set<Waiter> waiters = Collections.emptySet();
+
+    // Indexes for the String-based methods, so that web API lookups do not need to search.
+    // Built at load time, along with the Sets above.
+
+    /**
+     * Waiters by name.
+     */
+    private volatile Map<String, Waiter> waitersByName = Collections.emptyMap();
+
+    /**
+     * Restaurants by name.
+     */
+    private volatile Map<String, Restaurant> restaurantsByName = Collections.emptyMap();
+
+    /**
+     * Tables by restaurant, then by table number.
+     */
+    private volatile Map<Restaurant, Map<String, Table>> tablesByRestaurantAndNumber = Collections.emptyMap();
+
+    // Track assignments both ways to avoid having to search.
+    // Neither needs the restaurant locks to be read.
+
+    /**
+     * The tables of each waiter grouped by restaurant, for the waiter views.
+     * Each waiter's view is immutable, and replaced when its assignments are applied, so that readers see all or
+     * none of a waiter's changes without locking or copying. Applying assignments only copies the views of
+     * the waiters changed, so views of different waiters may be seen from before and after the same batch.
+     */
+    private volatile Map<Waiter, Map<Restaurant, Set<Table>>> waiterRestaurantTables = new ConcurrentHashMap<>();
+
+    /**
+     * Assignment tracking from table to waiter, and count of tables assigned to each waiter per restaurant.
+     * Kept up to date on every assignment, so that checking the constraint does not need to go through
+     * the waiter's tables.
+     */
+    private AssignmentStore assignmentStore = new MapAssignmentStore();
+
+    /**
+     * Tables grouped by restaurant, with their assigned waiter or empty if none, for the restaurant view.
+     * The tables for a restaurant are only changed while holding its lock.
+     */
+    private Map<Restaurant, Map<Table, Optional<Waiter>>> restaurantTableAssignments = Collections.emptyMap();
+
+    /**
+     * Indexes for pages in name order. Rebuilt as a whole when waiters or tables are added,
+     * so that readers see positions that match the sorted lists.
+     */
+    private volatile PageIndexes pageIndexes = new PageIndexes(Collections.emptyList(), Collections.emptyMap(),
+            Collections.emptyMap(), Collections.emptyMap(), Collections.emptyMap(), Collections.emptyMap(),
+            Collections.emptyMap());
+
+    // Versions for conditional requests. Increased after a change is visible, never before,
+    // so that a version is never paired with data older than it.
+
+    /**
+     * Version of all assignments.
+     */
+    private final AtomicLong version = new AtomicLong();
+
+    /**
+     * Version of the assignments in each restaurant.
+     */
+    private final Map<Restaurant, AtomicLong> restaurantVersions = new ConcurrentHashMap<>();
+
+    /**
+     * Version of the assignments of each waiter.
+     */
+    private final Map<Waiter, AtomicLong> waiterVersions = new ConcurrentHashMap<>();
+
+    // Position in the change log. Only changed while loading or holding the refresh lock.
+
+    /**
+     * ID of the change up to which all changes have been applied, or given up on as rolled back.
+     */
+    private long refreshedChangeId;
+
+    /**
+     * When each missing change after the refreshed one was first found missing, by change ID.
+     */
+    private final Map<Long, Long> changeGapNanos = new HashMap<>();
+
+    /**
+     * The ID of the latest change applied to each table, until refreshing has passed it, so that an older change
+     * read again from the change log does not replace a newer assignment. Only added to while holding the table's
+     * restaurant lock.
+     */
+    private final Map<Table, Long> tableChangeIds = new ConcurrentHashMap<>();
+
+    /**
+     * With the default configuration, but without reading the change log in the background.
+     *
+     * @param persistenceService
+     */
+    public ManagementServiceImpl(PersistenceService persistenceService) {
+        this(persistenceService, new WriteBehindProperties(), changeLogPropertiesWithoutPolling(),
+                new SnapshotProperties());
+    }
+
+    @Autowired
+    public ManagementServiceImpl(PersistenceService persistenceService, WriteBehindProperties writeBehindProperties,
+                                 ChangeLogProperties changeLogProperties, SnapshotProperties snapshotProperties) {
+        this.persistenceService = persistenceService;
+        this.changeGapTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(changeLogProperties.getGapTimeoutMillis());
+        this.changeLogRetention = changeLogProperties.getRetention();
+        this.changeLogProperties = changeLogProperties;
+        this.snapshotProperties = snapshotProperties;
+
+        // Changes read from the log could replace assignments still queued, which are not yet logged.
+        if (writeBehindProperties.isEnabled() && changeLogProperties.isEnabled()) {
+            throw new IllegalStateException("restaurant.write-behind.enabled requires "
+                    + "restaurant.change-log.enabled=false, since write-behind is for a single instance");
+        }
+
+        if (writeBehindProperties.isEnabled()) {
+            this.assignmentRestorer = Executors.newSingleThreadExecutor(runnable -> {
+                final Thread thread = new Thread(runnable, "assignment-restorer");
+                thread.setDaemon(true);
+                return thread;
+            });
+            this.writeBehindAssignmentWriter = new WriteBehindAssignmentWriter(persistenceService,
+                    writeBehindProperties,
+                    failedTables -> assignmentRestorer.execute(() -> restorePersistedAssignments(failedTables)));
+        } else {
+            this.assignmentRestorer = null;
+            this.writeBehindAssignmentWriter = null;
+        }
+
+        for (int i = 0; i < LOCK_STRIPES; i++) {
+            restaurantLocks[i] = new Object();
+        }
+
+        if (snapshotProperties.isEnabled()) {
+            this.snapshotFile = new SnapshotFile(Paths.get(snapshotProperties.getPath()));
+        } else {
+            this.snapshotFile = null;
+        }
+    }
+
+    /**
+     * Start reading and pruning the change log, and writing snapshots, in the background. Called once loaded,
+     * so that they never run against data not yet loaded, unless already closed.
+     */
+    private void startBackgroundJobs() {
+        synchronized (lifecycleLock) {
+            if (closed) {
+                return;
+            }
+
+            // Changes are logged whether or not they are read, so they are pruned either way.
+            changeLogExecutor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                final Thread thread = new Thread(runnable, "change-log");
+                thread.setDaemon(true);
+                return thread;
+            });
+            changeLogExecutor.scheduleWithFixedDelay(this::pruneChangeLog,
+                    changeLogProperties.getPruneIntervalMillis(), changeLogProperties.getPruneIntervalMillis(),
+                    TimeUnit.MILLISECONDS);
+            if (changeLogProperties.isEnabled()) {
+                changeLogExecutor.scheduleWithFixedDelay(this::pollChangeLog,
+                        changeLogProperties.getPollIntervalMillis(), changeLogProperties.getPollIntervalMillis(),
+                        TimeUnit.MILLISECONDS);
+            }
+
+            // With write-behind, assignments are applied before they are persisted, so a snapshot could have ones
+            // that are lost in a crash. It is then only written on shutdown, once they are flushed.
+            if ((snapshotFile != null) && (writeBehindAssignmentWriter == null)) {
+                snapshotWriter = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                    final Thread thread = new Thread(runnable, "snapshot-writer");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+                snapshotWriter.scheduleWithFixedDelay(this::writeSnapshotQuietly,
+                        snapshotProperties.getIntervalMillis(), snapshotProperties.getIntervalMillis(),
+                        TimeUnit.MILLISECONDS);
+            }
+        }
+    }
+
+    /**
+     * Stop reading and pruning the change log, flush assignments not yet persisted, and write a last snapshot
+     * on shutdown. Only the first call does anything.
+     */
+    @PreDestroy
+    public void close() {
+        synchronized (lifecycleLock) {
+            if (closed) {
+                return;
+            }
+
+            closed = true;
+        }
+
+        if (changeLogExecutor != null) {
+            changeLogExecutor.shutdownNow();
+        }
+
+        if (snapshotWriter != null) {
+            snapshotWriter.shutdownNow();
+        }
+
+        if (writeBehindAssignmentWriter != null) {
+            writeBehindAssignmentWriter.close();
+            stopAssignmentRestorer();
+        }
+
+        writeSnapshotQuietly();
+    }
+
+    /**
+     * Finish restoring the assignments that failed in the last flush, so that the last snapshot has them.
+     */
+    private void stopAssignmentRestorer() {
+        assignmentRestorer.shutdown();
+        try {
+            if (!assignmentRestorer.awaitTermination(RESTORE_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                LOGGER.warn("Gave up waiting to restore assignments that failed to persist");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Load in the background once the application has started, so that readiness shows the load's progress.
+     * Requests that arrive meanwhile are rejected, and never load. A failure is logged, and leaves the service
+     * not ready until restarted.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void startLoading() {
+        final Thread loader = new Thread(() -> {
+            try {
+                load();
+            } catch (RuntimeException e) {
+                loadMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - loadStartNanos);
+                loadFailed = true;
+                LOGGER.error("Failed to load, not ready", e);
+            }
+        }, "loader");
+        loader.setDaemon(true);
+        loader.start();
+    }
+
+    /**
+     * Load and index everything from persistence, if not yet loaded.
+     */
+    public void load() {
+        synchronized (loadLock) {
+            if (loaded) {
+                return;
+            }
+
+            loadStartNanos = System.nanoTime();
+            loadStarted = true;
+            loadFromPersistence();
+            loadMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - loadStartNanos);
+            loaded = true;
+        }
+
+        startBackgroundJobs();
+
+        LOGGER.info("Loaded {} tables and {} waiters in {} ms, ready", tables.size(), waiters.size(), loadMillis);
+    }
+
+    /**
+     * Reject a request that arrives before loading has finished. Requests never load.
+     */
+    private void checkLoaded() {
+        if (!loaded) {
+            throw new NotReadyException();
+        }
+    }
+
+    private void loadFromPersistence() {
+        // Load from the snapshot if there is one, otherwise from persistence.
+        final Snapshot snapshot = readSnapshot();
+        final long changeId;
+        final PersistedState persistedState;
+        if (snapshot != null) {
+            changeId = snapshot.getChangeId();
+            persistedState = snapshot.getPersistedState();
+        } else {
+            changeId = changeIdBeforeLoad();
+            persistedState = persistenceService.loadAll();
+        }
+
+        this.tables = persistedState.getTables();
+        this.waiters = persistedState.getWaiters();
+
+        // The indexes are derived in parallel, a waiter or table at a time. Names are unique, but are not checked.
+        final Map<String, Waiter> loadedWaitersByName = waiters.parallelStream()
+                .collect(Collectors.toMap(Waiter::getName, Function.identity(), (waiter1, waiter2) -> waiter2));
+
+        final Map<Restaurant, Map<String, Table>> loadedTablesByRestaurantAndNumber = tables.parallelStream()
+                .collect(Collectors.groupingBy(Table::getRestaurant,
+                        Collectors.toMap(Table::getNumber, Function.identity(), (table1, table2) -> table2)));
+
+        final Map<String, Restaurant> loadedRestaurantsByName = new HashMap<>();
+        for (final Restaurant restaurant: loadedTablesByRestaurantAndNumber.keySet()) {
+            loadedRestaurantsByName.put(restaurant.getName(), restaurant);
+        }
+
+        this.waitersByName = loadedWaitersByName;
+        this.restaurantsByName = loadedRestaurantsByName;
+        this.tablesByRestaurantAndNumber = loadedTablesByRestaurantAndNumber;
+
+        final Map<Waiter, Set<Table>> loadedWaiterTableAssignments = persistedState.getWaiterTableAssignments();
+
+        final AssignmentStore loadedAssignmentStore = new MapAssignmentStore();
+        loadedAssignmentStore.add(tables, waiters);
+        loadedAssignmentStore.load(loadedWaiterTableAssignments);
+
+        // Copy into concurrent collections, and derive values.
+        final Map<Waiter, Map<Restaurant, Set<Table>>> loadedWaiterRestaurantTables = new ConcurrentHashMap<>();
+        loadedWaiterTableAssignments.entrySet().parallelStream().forEach(entry ->
+            loadedWaiterRestaurantTables.put(entry.getKey(), entry.getValue().stream()
+                    .collect(Collectors.collectingAndThen(
+                            Collectors.groupingBy(Table::getRestaurant, Collectors.collectingAndThen(
+                                    Collectors.toSet(), Collections::unmodifiableSet)),
+                            Collections::unmodifiableMap))));
+
+        final Map<Restaurant, Map<Table, Optional<Waiter>>> concurrentRestaurantTableAssignments =
+                new ConcurrentHashMap<>();
+        tables.parallelStream().forEach(table -> concurrentRestaurantTableAssignments
+                .computeIfAbsent(table.getRestaurant(), restaurant -> new ConcurrentHashMap<>())
+                .put(table, Optional.ofNullable(loadedAssignmentStore.waiterOf(table))));
+
+        this.waiterRestaurantTables = loadedWaiterRestaurantTables;
+        this.assignmentStore = loadedAssignmentStore;
+        this.restaurantTableAssignments = concurrentRestaurantTableAssignments;
+
+        this.pageIndexes = buildPageIndexes(tables, waiters, loadedAssignmentStore);
+        this.refreshedChangeId = changeId;
+
+        // Catch up with the changes since the snapshot, before being ready.
+        if (snapshot != null) {
+            synchronized (refreshLock) {
+                refreshChanges();
+            }
+        }
+    }
+
+    /**
+     * Read the snapshot, if enabled and still usable with persistence: the changes since it must not be pruned yet,
+     * and it must not be ahead of the change log, which it would be if the database was replaced.
+     *
+     * @return null to load from persistence instead
+     */
+    private Snapshot readSnapshot() {
+        if (snapshotFile == null) {
+            return null;
+        }
+
+        final Snapshot snapshot;
+        try {
+            snapshot = snapshotFile.read();
+        } catch (IOException e) {
+            LOGGER.warn("Failed to read the snapshot, loading from persistence", e);
+            return null;
+        }
+
+        if (snapshot == null) {
+            return null;
+        }
+
+        final long earliestChangeId = persistenceService.earliestChangeId();
+        final long latestChangeId = persistenceService.latestChangeId();
+        if ((snapshot.getChangeId() < earliestChangeId - 1) || (snapshot.getChangeId() > latestChangeId)) {
+            LOGGER.warn("Snapshot at change {} does not match the change log from {} to {}, loading from persistence",
+                    snapshot.getChangeId(), earliestChangeId, latestChangeId);
+            return null;
+        }
+
+        LOGGER.info("Loading from snapshot at change {}", snapshot.getChangeId());
+        return snapshot;
+    }
+
+    /**
+     * Write a snapshot of the loaded state, if enabled and loaded. It is taken without locks, as of the refreshed
+     * change: without write-behind, assignments are only applied once persisted, and with it, a snapshot is only
+     * written once they have been flushed on shutdown. Either way, all of them are in the change log, so any applied
+     * since that change are also applied again when catching up after loading the snapshot.
+     * Package-private for tests.
+     *
+     * @throws IOException
+     */
+    void writeSnapshot() throws IOException {
+        if ((snapshotFile == null) || !loaded) {
+            return;
+        }
+
+        final long changeId;
+        synchronized (refreshLock) {
+            changeId = refreshedChangeId;
+        }
+
+        final long startNanos = System.nanoTime();
+        final AssignmentStore snapshotAssignmentStore = assignmentStore;
+        snapshotFile.write(changeId, tables, waiters, snapshotAssignmentStore::waiterOf);
+        LOGGER.info("Wrote snapshot at change {} in {} ms", changeId,
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos));
+    }
+
+    private void writeSnapshotQuietly() {
+        try {
+            writeSnapshot();
+        } catch (IOException | RuntimeException e) {
+            LOGGER.warn("Failed to write the snapshot", e);
+        }
+    }
+
+    /**
+     * Build the page indexes from waiters, tables and assignments.
+     *
+     * @param loadedTables
+     * @param loadedWaiters
+     * @param loadedAssignmentStore
+     * @return
+     */
+    private static PageIndexes buildPageIndexes(Set<Table> loadedTables, Set<Waiter> loadedWaiters,
+                                                AssignmentStore loadedAssignmentStore) {
+        final List<Waiter> loadedSortedWaiters = new ArrayList<>(loadedWaiters);
+        loadedSortedWaiters.sort(Comparator.comparing(Waiter::getName, NAME_ORDER));
+
+        final Map<Waiter, Integer> loadedWaiterPositions = new HashMap<>();
+        for (int i = 0; i < loadedSortedWaiters.size(); i++) {
+            loadedWaiterPositions.put(loadedSortedWaiters.get(i), i);
+        }
+
+        final Map<Restaurant, List<Table>> loadedSortedRestaurantTables = new HashMap<>();
+        for (final Table table: loadedTables) {
+            loadedSortedRestaurantTables.computeIfAbsent(table.getRestaurant(), restaurant -> new ArrayList<>())
+                    .add(table);
+        }
+
+        final Map<Table, Integer> loadedTablePositions = new HashMap<>();
+        final Map<Restaurant, NavigableMap<Integer, Waiter>> loadedRestaurantWaiters = new HashMap<>();
+        final Map<Restaurant, NavigableMap<Integer, Table>> loadedRestaurantAssignedTables = new HashMap<>();
+        final Map<Restaurant, NavigableMap<Integer, Table>> loadedRestaurantUnassignedTables = new HashMap<>();
+        for (final Map.Entry<Restaurant, List<Table>> entry: loadedSortedRestaurantTables.entrySet()) {
+            final List<Table> sortedTables = entry.getValue();
+            sortedTables.sort(Comparator.comparing(Table::getNumber, NAME_ORDER));
+
+            final NavigableMap<Integer, Waiter> waitersInRestaurant = new ConcurrentSkipListMap<>();
+            final NavigableMap<Integer, Table> assignedTables = new ConcurrentSkipListMap<>();
+            final NavigableMap<Integer, Table> unassignedTables = new ConcurrentSkipListMap<>();
+            for (int i = 0; i < sortedTables.size(); i++) {
+                final Table table = sortedTables.get(i);
+                loadedTablePositions.put(table, i);
+
+                final Waiter waiter = loadedAssignmentStore.waiterOf(table);
+                if (waiter == null) {
+                    unassignedTables.put(i, table);
+                } else {
+                    assignedTables.put(i, table);
+
+                    final Integer waiterPosition = loadedWaiterPositions.get(waiter);
+                    if (waiterPosition != null) {
+                        waitersInRestaurant.put(waiterPosition, waiter);
+                    }
+                }
+            }
+
+            loadedRestaurantWaiters.put(entry.getKey(), waitersInRestaurant);
+            loadedRestaurantAssignedTables.put(entry.getKey(), assignedTables);
+            loadedRestaurantUnassignedTables.put(entry.getKey(), unassignedTables);
+        }
+
+        return new PageIndexes(loadedSortedWaiters, loadedWaiterPositions, loadedSortedRestaurantTables,
+                loadedTablePositions, loadedRestaurantWaiters, loadedRestaurantAssignedTables,
+                loadedRestaurantUnassignedTables);
+    }
+
+    // Refreshing from the change log. Changes by any instance are logged in ID order, and are applied here
+    // through the same paths as local ones. Applying a change again, in order, has the same result,
+    // so changes are read again rather than risk missing any.
+
+    /**
+     * The change ID to refresh from after loading, read before loading.
+     * Changes shortly before the latest may be in transactions not yet committed, so they are read again.
+     *
+     * @return
+     */
+    private long changeIdBeforeLoad() {
+        final long earliestChangeId = persistenceService.earliestChangeId();
+        final long latestChangeId = persistenceService.latestChangeId();
+
+        return Math.max(0, Math.max(earliestChangeId - 1, latestChangeId - CHANGE_BATCH_SIZE));
+    }
+
+    private static ChangeLogProperties changeLogPropertiesWithoutPolling() {
+        final ChangeLogProperties changeLogProperties = new ChangeLogProperties();
+        changeLogProperties.setEnabled(false);
+        return changeLogProperties;
+    }
+
+    private void pollChangeLog() {
+        try {
+            refresh();
+        } catch (RuntimeException e) {
+            LOGGER.warn("Failed to refresh from the change log", e);
+        }
+    }
+
+    /**
+     * Apply the changes logged since the last refresh, if loaded.
+     * Package-private for tests.
+     */
+    void refresh() {
+        if (!loaded) {
+            return;
+        }
+
+        synchronized (refreshLock) {
+            refreshChanges();
+        }
+    }
+
+    /**
+     * Apply the changes logged since the last refresh. Must hold the refresh lock.
+     */
+    private void refreshChanges() {
+        // Changes not yet read were pruned, so load everything instead.
+        final long earliestChangeId = persistenceService.earliestChangeId();
+        if (earliestChangeId > refreshedChangeId + 1) {
+            LOGGER.warn("Changes after {} were pruned before being read, reloading", refreshedChangeId);
+            reload();
+            return;
+        }
+
+        final List<ChangeLogEntry> changes = new ArrayList<>();
+        long afterId = refreshedChangeId;
+        List<ChangeLogEntry> batch;
+        do {
+            batch = persistenceService.loadChanges(afterId, CHANGE_BATCH_SIZE);
+            changes.addAll(batch);
+            if (!batch.isEmpty()) {
+                afterId = batch.get(batch.size() - 1).getId();
+            }
+        } while (batch.size() == CHANGE_BATCH_SIZE);
+
+        applyChanges(changes);
+        advanceRefreshedChangeId(changes);
+        forgetTableChangeIds();
+    }
+
+    /**
+     * Forget the change IDs of tables up to the refreshed one, since only later changes are read.
+     * Each is only removed if unchanged, since it may be replaced concurrently. Must hold the refresh lock.
+     */
+    private void forgetTableChangeIds() {
+        for (final Map.Entry<Table, Long> entry: tableChangeIds.entrySet()) {
+            if (entry.getValue() <= refreshedChangeId) {
+                tableChangeIds.remove(entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
+    /**
+     * Record the ID of a change applied to a table, unless a later one was. Must hold the lock for the table's
+     * restaurant.
+     *
+     * @param table
+     * @param changeId
+     */
+    private void recordChangeId(Table table, long changeId) {
+        tableChangeIds.merge(table, changeId, Math::max);
+    }
+
+    private void pruneChangeLog() {
+        try {
+            pruneChanges();
+        } catch (RuntimeException e) {
+            LOGGER.warn("Failed to prune the change log", e);
+        }
+    }
+
+    /**
+     * Delete the changes before the latest retained ones. An instance that has not read them reloads everything.
+     * Package-private for tests.
+     */
+    void pruneChanges() {
+        final long pruneBeforeId = persistenceService.latestChangeId() - changeLogRetention;
+        if (pruneBeforeId > persistenceService.earliestChangeId()) {
+            persistenceService.pruneChanges(pruneBeforeId);
+        }
+    }
+
+    /**
+     * Advance the refreshed change ID past the changes read, up to the first missing one.
+     * A missing change may be in a transaction not yet committed, so it is waited for until the gap timeout,
+     * and then assumed to be rolled back. Must hold the refresh lock.
+     *
+     * @param changes read after the refreshed change ID, in ID order
+     */
+    private void advanceRefreshedChangeId(List<ChangeLogEntry> changes) {
+        final long nowNanos = System.nanoTime();
+
+        final Set<Long> changeIds = new HashSet<>();
+        long expectedId = refreshedChangeId + 1;
+        for (final ChangeLogEntry change: changes) {
+            for (long missingId = expectedId; missingId < change.getId(); missingId++) {
+                changeGapNanos.putIfAbsent(missingId, nowNanos);
+            }
+
+            changeIds.add(change.getId());
+            expectedId = change.getId() + 1;
+        }
+
+        while (true) {
+            final long nextId = refreshedChangeId + 1;
+            final Long gapNanos = changeGapNanos.get(nextId);
+
+            if (changeIds.contains(nextId)) {
+                refreshedChangeId = nextId;
+            } else if ((gapNanos != null) && (nowNanos - gapNanos >= changeGapTimeoutNanos)) {
+                LOGGER.info("Change {} was not committed in time, assuming it was rolled back", nextId);
+                refreshedChangeId = nextId;
+            } else {
+                break;
+            }
+        }
+
+        changeGapNanos.keySet().removeIf(changeId -> changeId <= refreshedChangeId);
+    }
+
+    /**
+     * Apply changes in order. Tables and waiters are added first, since later assignments may need them.
+     * Only the last assignment of each table is applied.
+     *
+     * @param changes
+     */
+    private void applyChanges(List<ChangeLogEntry> changes) {
+        final List<Table> newTables = new ArrayList<>();
+        final List<Waiter> newWaiters = new ArrayList<>();
+        final Map<Table, Waiter> tableWaiters = new LinkedHashMap<>();
+        final Map<Table, Long> changeIds = new HashMap<>();
+        for (final ChangeLogEntry change: changes) {
+            switch (change.getKind()) {
+                case TABLE:
+                    newTables.add(change.getTable());
+                    break;
+                case WAITER:
+                    newWaiters.add(change.getWaiter());
+                    break;
+                default:
+                    tableWaiters.remove(change.getTable());
+                    tableWaiters.put(change.getTable(), change.getWaiter());
+                    changeIds.put(change.getTable(), change.getId());
+                    break;
+            }
+        }
+
+        addTablesAndWaiters(newTables, newWaiters);
+        applyAssignments(tableWaiters, changeIds::get);
+    }
+
+    /**
+     * Reload everything, and apply the differences through the same paths as changes.
+     * Must hold the refresh lock.
+     */
+    private void reload() {
+        final long changeId = changeIdBeforeLoad();
+        final PersistedState persistedState = persistenceService.loadAll();
+
+        addTablesAndWaiters(persistedState.getTables(), persistedState.getWaiters());
+
+        final Map<Table, Waiter> tableWaiters = new HashMap<>();
+        for (final Map.Entry<Waiter, Set<Table>> entry: persistedState.getWaiterTableAssignments().entrySet()) {
+            for (final Table table: entry.getValue()) {
+                if (!entry.getKey().equals(assignmentStore.waiterOf(table))) {
+                    tableWaiters.put(table, entry.getKey());
+                }
+            }
+        }
+
+        // Loaded after the change ID was read, so at least as new as that change.
+        applyAssignments(tableWaiters, table -> changeId);
+
+        refreshedChangeId = changeId;
+        changeGapNanos.clear();
+        forgetTableChangeIds();
+    }
+
+    /**
+     * Add tables and waiters not yet known. All indexes are rebuilt with them, while holding all restaurant locks,
+     * and replaced so that readers see either all or none of them. Must hold the refresh lock.
+     *
+     * @param newTables
+     * @param newWaiters
+     */
+    private void addTablesAndWaiters(Collection<Table> newTables, Collection<Waiter> newWaiters) {
+        // The name indexes are only changed here and when loading, so they can be copied before locking.
+        final Map<String, Waiter> updatedWaitersByName = new HashMap<>(waitersByName);
+        final List<Waiter> addedWaiters = new ArrayList<>();
+        for (final Waiter waiter: newWaiters) {
+            if (updatedWaitersByName.putIfAbsent(waiter.getName(), waiter) == null) {
+                addedWaiters.add(waiter);
+            }
+        }
+
+        final Map<String, Restaurant> updatedRestaurantsByName = new HashMap<>(restaurantsByName);
+        final Map<Restaurant, Map<String, Table>> updatedTablesByRestaurantAndNumber =
+                new HashMap<>(tablesByRestaurantAndNumber);
+        final Set<Restaurant> copiedRestaurants = new HashSet<>();
+        final List<Table> addedTables = new ArrayList<>();
+        for (final Table newTable: newTables) {
+            final Restaurant restaurant = updatedRestaurantsByName.computeIfAbsent(
+                    newTable.getRestaurant().getName(), name -> newTable.getRestaurant());
+            if (copiedRestaurants.add(restaurant)) {
+                updatedTablesByRestaurantAndNumber.put(restaurant, new HashMap<>(
+                        updatedTablesByRestaurantAndNumber.getOrDefault(restaurant, Collections.emptyMap())));
+            }
+
+            // With the known restaurant, so that the same restaurant is always the same object.
+            // Interned tables already are.
+            Table table = newTable;
+            if (newTable.getRestaurant() != restaurant) {
+                table = new Table(newTable.getNumber(), restaurant);
+            }
+
+            if (updatedTablesByRestaurantAndNumber.get(restaurant).putIfAbsent(table.getNumber(), table) == null) {
+                addedTables.add(table);
+            }
+        }
+
+        if (addedTables.isEmpty() && addedWaiters.isEmpty()) {
+            return;
+        }
+
+        withRestaurantLocks(IntStream.range(0, LOCK_STRIPES).toArray(), 0, () -> {
+            final Set<Table> updatedTables = new HashSet<>(tables);
+            updatedTables.addAll(addedTables);
+            final Set<Waiter> updatedWaiters = new HashSet<>(waiters);
+            updatedWaiters.addAll(addedWaiters);
+
+            for (final Table table: addedTables) {
+                restaurantTableAssignments
+                        .computeIfAbsent(table.getRestaurant(), restaurant -> new ConcurrentHashMap<>())
+                        .put(table, Optional.empty());
+            }
+
+            for (final Waiter waiter: addedWaiters) {
+                waiterRestaurantTables.putIfAbsent(waiter, Collections.emptyMap());
+            }
+
+            // The page indexes first, since readers find a restaurant by name and then look it up in them.
+            assignmentStore.add(addedTables, addedWaiters);
+
+            this.pageIndexes = buildPageIndexes(updatedTables, updatedWaiters, assignmentStore);
+            this.tables = updatedTables;
+            this.waiters = updatedWaiters;
+            this.waitersByName = updatedWaitersByName;
+            this.restaurantsByName = updatedRestaurantsByName;
+            this.tablesByRestaurantAndNumber = updatedTablesByRestaurantAndNumber;
+
+            for (final Table table: addedTables) {
+                increaseVersion(restaurantVersions, table.getRestaurant());
+            }
+            version.incrementAndGet();
+        });
+    }
+
+    /**
+     * Apply assignments from the change log, resolved to the known tables and waiters.
+     * They were already checked against the constraint and persisted by the instance that made them.
+     * A table is skipped if a later change was already applied to it, such as one made here meanwhile.
+     *
+     * @param tableWaiters
+     * @param changeIdOf the ID of the change of each table's assignment
+     */
+    private void applyAssignments(Map<Table, Waiter> tableWaiters, ToLongFunction<Table> changeIdOf) {
+        final Map<Table, Waiter> resolvedTableWaiters = new LinkedHashMap<>();
+        for (final Map.Entry<Table, Waiter> entry: tableWaiters.entrySet()) {
+            final Table table = knownTable(entry.getKey());
+            final Waiter waiter = waitersByName.get(entry.getValue().getName());
+
+            if ((table == null) || (waiter == null)) {
+                LOGGER.warn("Ignoring assignment of unknown {} to {}", entry.getValue(), entry.getKey());
+            } else {
+                resolvedTableWaiters.put(table, waiter);
+            }
+        }
+
+        if (resolvedTableWaiters.isEmpty()) {
+            return;
+        }
+
+        final Set<Restaurant> restaurants =
+                resolvedTableWaiters.keySet().stream().map(Table::getRestaurant).collect(Collectors.toSet());
+        withRestaurantLocks(stripesOf(restaurants), 0, () -> {
+            final Map<Table, Waiter> appliedTableWaiters = new LinkedHashMap<>();
+            final Map<Table, Waiter> previousTableWaiters = new HashMap<>();
+            for (final Map.Entry<Table, Waiter> entry: resolvedTableWaiters.entrySet()) {
+                final long changeId = changeIdOf.applyAsLong(entry.getKey());
+                if (tableChangeIds.getOrDefault(entry.getKey(), 0L) > changeId) {
+                    continue;
+                }
+
+                appliedTableWaiters.put(entry.getKey(), entry.getValue());
+                previousTableWaiters.put(entry.getKey(), applyAssignment(entry.getValue(), entry.getKey()));
+                recordChangeId(entry.getKey(), changeId);
+            }
+
+            publishAssignments(appliedTableWaiters, previousTableWaiters);
+            increaseVersions(appliedTableWaiters, previousTableWaiters);
+        });
+    }
+
+    /**
+     * Restore the persisted assignments of tables whose assignments failed to persist, since they were applied
+     * in memory first. Tables with assignments still queued are skipped, since those replace them, and restored
+     * again if they fail too.
+     *
+     * @param failedTables
+     */
+    private void restorePersistedAssignments(Set<Table> failedTables) {
+        final Set<Restaurant> restaurants =
+                failedTables.stream().map(Table::getRestaurant).collect(Collectors.toSet());
+        withRestaurantLocks(stripesOf(restaurants), 0, () -> {
+            // Nothing more is queued for these restaurants while holding their locks, so a table not pending now
+            // stays so, and its persisted waiter is its latest.
+            final Set<Table> restoredTables = new HashSet<>();
+            for (final Table failedTable : failedTables) {
+                final Table table = knownTable(failedTable);
+                if ((table != null) && !writeBehindAssignmentWriter.isPending(table)) {
+                    restoredTables.add(table);
+                }
+            }
+
+            final Map<Table, Waiter> tableWaiters = new HashMap<>();
+            final Map<Table, Waiter> previousTableWaiters = new HashMap<>();
+            for (final Restaurant restaurant : restaurants) {
+                final Map<Table, Waiter> persistedTableWaiters = persistenceService.loadTableWaiters(restaurant);
+                for (final Map.Entry<Table, Waiter> entry : persistedTableWaiters.entrySet()) {
+                    final Table table = knownTable(entry.getKey());
+                    Waiter waiter = null;
+                    if (entry.getValue() != null) {
+                        waiter = waitersByName.get(entry.getValue().getName());
+                    }
+
+                    if (restoredTables.contains(table) && ((entry.getValue() == null) || (waiter != null))
+                            && !Objects.equals(waiter, assignmentStore.waiterOf(table))) {
+                        tableWaiters.put(table, waiter);
+                        previousTableWaiters.put(table, applyAssignment(waiter, table));
+                    }
+                }
+            }
+
+            LOGGER.warn("Restored {} of {} assignments that failed to persist", tableWaiters.size(),
+                    failedTables.size());
+            publishAssignments(tableWaiters, previousTableWaiters);
+            increaseVersions(tableWaiters, previousTableWaiters);
+        });
+    }
+
+    /**
+     * The loaded table with the same restaurant name and number.
+     *
+     * @param table
+     * @return null if not loaded
+     */
+    private Table knownTable(Table table) {
+        return Optional.ofNullable(restaurantsByName.get(table.getRestaurant().getName()))
+                .map(tablesByRestaurantAndNumber::get)
+                .map(tablesByNumber -> tablesByNumber.get(table.getNumber()))
+                .orElse(null);
+    }
+
+    /**
+     * The lock for assignments in a restaurant.
+     *
+     * @param restaurant
+     * @return
+     */
+    private Object lockFor(Restaurant restaurant) {
+        return restaurantLocks[Math.floorMod(restaurant.hashCode(), LOCK_STRIPES)];
+    }
+
+    @Override
+    public Set<Waiter> assignWaiter(Waiter waiter, Table table) {
+        if (waiter == null) {
+            throw new IllegalArgumentException("must provide waiter");
+        }
+
+        if (table == null) {
+            throw new IllegalArgumentException("must provide table");
+        }
+
+        checkLoaded();
+
+        int attempt = 1;
+        while (true) {
+            try {
+                return assignWaiterOnce(waiter, table);
+            } catch (ConcurrencyFailureException e) {
+                handleConflict(attempt++, e);
+            }
+        }
+    }
+
+    /**
+     * Assign a waiter to a table if the constraint is matched, failing if persisting conflicts with another instance.
+     *
+     * @param waiter
+     * @param table
+     * @return empty on success, or alternate waiters if not possible.
+     */
+    private Set<Waiter> assignWaiterOnce(Waiter waiter, Table table) {
+        final Restaurant restaurant = table.getRestaurant();
+
+        // The check and the update must be atomic, so that concurrent assignments cannot together
+        // exceed the constraint. The constraint is per restaurant, so only lock the restaurant.
+        synchronized (lockFor(restaurant)) {
+            // Check the constraints and find other possible waiters. May be none.
+            if (!checkConstraint(waiter, restaurant)) {
+                return suggestOtherWaiters(waiter, restaurant);
+            }
+
+            // Persist first, so that nothing is applied in memory if it conflicts.
+            // In persistence, while still holding the lock so that it is in the same order as in memory.
+            if (writeBehindAssignmentWriter == null) {
+                recordChangeId(table, persistenceService.assign(table, waiter));
+            }
+
+            final Waiter previousWaiter = applyAssignment(waiter, table);
+            publishAssignments(Collections.singletonMap(table, waiter),
+                    Collections.singletonMap(table, previousWaiter));
+            increaseVersions(Collections.singletonMap(table, waiter), Collections.singletonMap(table, previousWaiter));
+
+            if (writeBehindAssignmentWriter != null) {
+                writeBehindAssignmentWriter.write(table, waiter);
+            }
+        }
+
+        // Success
+        return Collections.emptySet();
+    }
 
-    private boolean loaded = false;
+    /**
+     * After persisting assignments conflicted with another instance's, apply that instance's changes and wait
+     * before trying again, longer for each attempt. Must not hold any restaurant lock.
+     *
+     * @param attempt the attempt that conflicted, from 1
+     * @param e the conflict, thrown if there are no attempts left
+     */
+    private void handleConflict(int attempt, ConcurrencyFailureException e) {
+        if (attempt >= MAX_ASSIGNMENT_ATTEMPTS) {
+            throw e;
+        }
 
-    private Set<Table> tables = Collections.emptySet();
+        LOGGER.info("Assignment conflicted with another instance on attempt {}, retrying: {}", attempt,
+                e.getMessage());
 
-    private Set<Waiter> waiters = Collections.emptySet();
+        refresh();
 
-    // Use two Maps for tracking assignments to avoid having to search.
+        // Exponential with jitter, so that conflicting instances do not retry in step.
+        final long backoffMillis = Math.min(INITIAL_CONFLICT_BACKOFF_MILLIS << (attempt - 1),
+                MAX_CONFLICT_BACKOFF_MILLIS);
+        try {
+            Thread.sleep(ThreadLocalRandom.current().nextLong(backoffMillis / 2, backoffMillis + 1));
+        } catch (InterruptedException e1) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("interrupted while retrying assignment", e1);
+        }
+    }
 
     /**
-     * Assignment tracking from waiter to tables.
+     * Assign a waiter to a table in memory, unassigning the previous waiter.
+     * The waiter views are not changed until published.
+     * Must hold the lock for the table's restaurant.
+     *
+     * @param waiter null to only unassign the previous waiter
+     * @param table
+     * @return the previous waiter, or null if none
      */
-    private Map<Waiter, Set<Table>> waiterTableAssignments = Collections.emptyMap();
+    private Waiter applyAssignment(Waiter waiter, Table table) {
+        final Restaurant restaurant = table.getRestaurant();
+
+        // If the table was already assigned to another waiter, it no longer counts for that waiter.
+        // Reassigning a table to its own waiter does not change the counts.
+        final Waiter previousWaiter;
+        if (waiter == null) {
+            previousWaiter = assignmentStore.unassign(table);
+        } else {
+            previousWaiter = assignmentStore.assign(table, waiter);
+        }
+
+        // Only loaded tables are shown in the restaurant view.
+        final Map<Table, Optional<Waiter>> tableAssignments = restaurantTableAssignments.get(restaurant);
+        if (tableAssignments != null) {
+            tableAssignments.replace(table, Optional.ofNullable(waiter));
+        }
+
+        updatePageIndexes(waiter, table, previousWaiter);
+
+        return previousWaiter;
+    }
 
     /**
-     * Assignment tracking from table to waiter.
+     * Update the page indexes for an assignment applied in memory. Only loaded waiters and tables are indexed.
+     * Must hold the lock for the table's restaurant.
+     *
+     * @param waiter or null if unassigned
+     * @param table
+     * @param previousWaiter or null if none
      */
-    private Map<Table, Waiter> tableWaiterAssignments = Collections.emptyMap();
+    private void updatePageIndexes(Waiter waiter, Table table, Waiter previousWaiter) {
+        final PageIndexes indexes = pageIndexes;
+        final Integer tablePosition = indexes.tablePositions.get(table);
+        if ((tablePosition == null) || Objects.equals(waiter, previousWaiter)) {
+            return;
+        }
 
-    public ManagementServiceImpl(PersistenceService persistenceService) {
-        this.persistenceService = persistenceService;
+        final Restaurant restaurant = table.getRestaurant();
+        if (previousWaiter == null) {
+            indexes.restaurantUnassignedTables.get(restaurant).remove(tablePosition);
+            indexes.restaurantAssignedTables.get(restaurant).put(tablePosition, table);
+        } else if (waiter == null) {
+            indexes.restaurantAssignedTables.get(restaurant).remove(tablePosition);
+            indexes.restaurantUnassignedTables.get(restaurant).put(tablePosition, table);
+        }
+
+        final NavigableMap<Integer, Waiter> waitersInRestaurant = indexes.restaurantWaiters.get(restaurant);
+
+        final Integer previousWaiterPosition = indexes.waiterPositions.get(previousWaiter);
+        if ((previousWaiterPosition != null) && (assignmentStore.tableCount(restaurant, previousWaiter) <= 0)) {
+            waitersInRestaurant.remove(previousWaiterPosition);
+        }
+
+        final Integer waiterPosition = indexes.waiterPositions.get(waiter);
+        if (waiterPosition != null) {
+            waitersInRestaurant.put(waiterPosition, waiter);
+        }
     }
 
-    private void loadFromPersistence() {
-        // Load from persistence.
-        this.tables = persistenceService.loadTables();
-        this.waiters = persistenceService.loadWaiters();
+    /**
+     * Publish applied assignments to the waiter views, each changed waiter's view in one new copy.
+     * Must hold the locks for the tables' restaurants, so that the assignments of a table are published in order.
+     * Assignments in other restaurants may be published concurrently, so each view is replaced atomically.
+     *
+     * @param tableWaiters the new waiter of each table, or null if unassigned
+     * @param previousTableWaiters the previous waiter of each table, or null if none
+     */
+    private void publishAssignments(Map<Table, Waiter> tableWaiters, Map<Table, Waiter> previousTableWaiters) {
+        // Group by waiter, so that a waiter's view is copied once for the batch.
+        final Map<Waiter, Set<Table>> addedTables = new HashMap<>();
+        final Map<Waiter, Set<Table>> removedTables = new HashMap<>();
+        for (final Map.Entry<Table, Waiter> entry: tableWaiters.entrySet()) {
+            final Table table = entry.getKey();
+            final Waiter waiter = entry.getValue();
+            final Waiter previousWaiter = previousTableWaiters.get(table);
 
-        this.waiterTableAssignments = persistenceService.loadWaiterTableAssignments();
+            if (!Objects.equals(waiter, previousWaiter)) {
+                if (previousWaiter != null) {
+                    removedTables.computeIfAbsent(previousWaiter, key -> new HashSet<>()).add(table);
+                }
 
-        // Derive values.
-        tableWaiterAssignments = new HashMap<>();
-        for (final Map.Entry<Waiter, Set<Table>> entry: waiterTableAssignments.entrySet()) {
-            for (final Table table: entry.getValue()) {
-                tableWaiterAssignments.put(table, entry.getKey());
+                if (waiter != null) {
+                    addedTables.computeIfAbsent(waiter, key -> new HashSet<>()).add(table);
+                }
+            }
+        }
+
+        final Set<Waiter> changedWaiters = new HashSet<>(removedTables.keySet());
+        changedWaiters.addAll(addedTables.keySet());
+        for (final Waiter waiter: changedWaiters) {
+            waiterRestaurantTables.compute(waiter, (key, restaurantTables) -> withTables(
+                    Optional.ofNullable(restaurantTables).orElse(Collections.emptyMap()),
+                    addedTables.getOrDefault(waiter, Collections.emptySet()),
+                    removedTables.getOrDefault(waiter, Collections.emptySet())));
+        }
+    }
+
+    /**
+     * Increase the versions of the restaurants and waiters changed by applied assignments, and the overall version.
+     * Must be called after the assignments are published.
+     *
+     * @param tableWaiters the new waiter of each table, or null if unassigned
+     * @param previousTableWaiters the previous waiter of each table, or null if none
+     */
+    private void increaseVersions(Map<Table, Waiter> tableWaiters, Map<Table, Waiter> previousTableWaiters) {
+        boolean changed = false;
+        for (final Map.Entry<Table, Waiter> entry: tableWaiters.entrySet()) {
+            final Waiter previousWaiter = previousTableWaiters.get(entry.getKey());
+
+            if (!Objects.equals(entry.getValue(), previousWaiter)) {
+                changed = true;
+
+                increaseVersion(restaurantVersions, entry.getKey().getRestaurant());
+                if (entry.getValue() != null) {
+                    increaseVersion(waiterVersions, entry.getValue());
+                }
+                if (previousWaiter != null) {
+                    increaseVersion(waiterVersions, previousWaiter);
+                }
+            }
+        }
+
+        if (changed) {
+            version.incrementAndGet();
+        }
+    }
+
+    private static <K> void increaseVersion(Map<K, AtomicLong> versions, K key) {
+        versions.computeIfAbsent(key, key1 -> new AtomicLong()).incrementAndGet();
+    }
+
+    /**
+     * Copy of a waiter's view with tables added and removed, copying only the sets of the restaurants changed.
+     * A restaurant without tables is removed.
+     *
+     * @param restaurantTables
+     * @param addedTables
+     * @param removedTables
+     * @return
+     */
+    private static Map<Restaurant, Set<Table>> withTables(Map<Restaurant, Set<Table>> restaurantTables,
+                                                          Set<Table> addedTables, Set<Table> removedTables) {
+        final Map<Restaurant, Set<Table>> updatedTables = new HashMap<>();
+        for (final Table table: removedTables) {
+            updatedTables.computeIfAbsent(table.getRestaurant(), restaurant ->
+                    new HashSet<>(restaurantTables.getOrDefault(restaurant, Collections.emptySet()))).remove(table);
+        }
+        for (final Table table: addedTables) {
+            updatedTables.computeIfAbsent(table.getRestaurant(), restaurant ->
+                    new HashSet<>(restaurantTables.getOrDefault(restaurant, Collections.emptySet()))).add(table);
+        }
+
+        final Map<Restaurant, Set<Table>> updated = new HashMap<>(restaurantTables);
+        for (final Map.Entry<Restaurant, Set<Table>> entry: updatedTables.entrySet()) {
+            if (entry.getValue().isEmpty()) {
+                updated.remove(entry.getKey());
+            } else {
+                updated.put(entry.getKey(), Collections.unmodifiableSet(entry.getValue()));
             }
         }
+
+        return Collections.unmodifiableMap(updated);
     }
 
     @Override
-    public Set<Waiter> assignWaiter(Waiter waiter, Table table) {
-        if (waiter == null) {
-            throw new IllegalArgumentException("must provide waiter");
+    public List<AssignmentResult> assignWaiters(Map<Table, Waiter> tableWaiters) {
+        if (tableWaiters == null) {
+            throw new IllegalArgumentException("must provide assignments");
         }
 
-        if (table == null) {
-            throw new IllegalArgumentException("must provide table");
+        checkLoaded();
+
+        final Map<Table, AssignmentResult> tableResults = assignWaitersToTables(tableWaiters);
+
+        final List<AssignmentResult> results = new ArrayList<>(tableWaiters.size());
+        for (final Table table: tableWaiters.keySet()) {
+            results.add(tableResults.get(table));
         }
 
-        if (!loaded) {
-            loadFromPersistence();
-            loaded = true;
+        return results;
+    }
+
+    /**
+     * Assign waiters to tables in one pass, validated per restaurant against the combined result.
+     *
+     * @param tableWaiters
+     * @return the result for each table
+     */
+    private Map<Table, AssignmentResult> assignWaitersToTables(Map<Table, Waiter> tableWaiters) {
+        final Map<Table, AssignmentResult> tableResults = new HashMap<>();
+
+        // Group by restaurant, since the constraint and the all or nothing application are per restaurant.
+        final Map<Restaurant, Map<Table, Waiter>> restaurantTableWaiters = new LinkedHashMap<>();
+        for (final Map.Entry<Table, Waiter> entry: tableWaiters.entrySet()) {
+            final Table table = entry.getKey();
+            final Waiter waiter = entry.getValue();
+
+            // Unknown ones cannot be persisted, and would otherwise fail the whole transaction.
+            if ((table == null) || (waiter == null) || !tables.contains(table) || !waiters.contains(waiter)) {
+                tableResults.put(table, result(waiter, table, AssignmentResult.Status.NOT_FOUND));
+            } else {
+                restaurantTableWaiters.computeIfAbsent(table.getRestaurant(), restaurant -> new LinkedHashMap<>())
+                        .put(table, waiter);
+            }
         }
 
-        final Restaurant restaurant = table.getRestaurant();
+        int attempt = 1;
+        while (true) {
+            final Map<Table, AssignmentResult> attemptTableResults = new HashMap<>(tableResults);
+            try {
+                assignWaitersToTablesOnce(restaurantTableWaiters, attemptTableResults);
+                return attemptTableResults;
+            } catch (ConcurrencyFailureException e) {
+                handleConflict(attempt++, e);
+            }
+        }
+    }
+
+    /**
+     * Assign known waiters to tables in one pass, failing if persisting conflicts with another instance.
+     *
+     * @param restaurantTableWaiters the assignments grouped by restaurant
+     * @param tableResults added to
+     */
+    private void assignWaitersToTablesOnce(Map<Restaurant, Map<Table, Waiter>> restaurantTableWaiters,
+                                           Map<Table, AssignmentResult> tableResults) {
+        withRestaurantLocks(stripesOf(restaurantTableWaiters.keySet()), 0, () -> {
+            final Map<Table, Waiter> accepted = new LinkedHashMap<>();
+            for (final Map.Entry<Restaurant, Map<Table, Waiter>> entry: restaurantTableWaiters.entrySet()) {
+                checkConstraints(entry.getKey(), entry.getValue(), accepted, tableResults);
+            }
+
+            if (accepted.isEmpty()) {
+                return;
+            }
+
+            // Persist first, in one transaction, so that nothing is applied in memory if it fails.
+            if (writeBehindAssignmentWriter == null) {
+                final long changeId = persistenceService.assignAll(accepted);
+                for (final Table table: accepted.keySet()) {
+                    recordChangeId(table, changeId);
+                }
+            }
+
+            final Map<Table, Waiter> previousTableWaiters = new HashMap<>();
+            for (final Map.Entry<Table, Waiter> entry: accepted.entrySet()) {
+                previousTableWaiters.put(entry.getKey(), applyAssignment(entry.getValue(), entry.getKey()));
+
+                if (writeBehindAssignmentWriter != null) {
+                    writeBehindAssignmentWriter.write(entry.getKey(), entry.getValue());
+                }
+
+                tableResults.put(entry.getKey(),
+                        result(entry.getValue(), entry.getKey(), AssignmentResult.Status.ASSIGNED));
+            }
+
+            // The whole batch becomes visible to each waiter's view at once.
+            publishAssignments(accepted, previousTableWaiters);
+            increaseVersions(accepted, previousTableWaiters);
+        });
+    }
+
+    /**
+     * Check the constraint for a restaurant's assignments in a batch, against the counts after all of them.
+     * If all pass, they are added to the accepted ones, otherwise the rejected and not applied results are added.
+     * Must hold the lock for the restaurant.
+     *
+     * @param restaurant
+     * @param tableWaiters the restaurant's assignments in the batch
+     * @param accepted added to if all pass
+     * @param tableResults added to if any fail
+     */
+    private void checkConstraints(Restaurant restaurant, Map<Table, Waiter> tableWaiters,
+                                  Map<Table, Waiter> accepted, Map<Table, AssignmentResult> tableResults) {
+        // Changes to the counts, added to the current counts.
+        final Map<Waiter, Integer> waiterTableCountChanges = new HashMap<>();
+        final Set<Waiter> gainingWaiters = new HashSet<>();
+        for (final Map.Entry<Table, Waiter> entry: tableWaiters.entrySet()) {
+            final Waiter previousWaiter = assignmentStore.waiterOf(entry.getKey());
+            if (!entry.getValue().equals(previousWaiter)) {
+                if (previousWaiter != null) {
+                    waiterTableCountChanges.merge(previousWaiter, -1, Integer::sum);
+                }
 
-        // Check the constraints and find other possible waiters. May be none.
-        if (!checkConstraint(waiter, restaurant)) {
-            return suggestOtherWaiters(waiter, restaurant);
+                waiterTableCountChanges.merge(entry.getValue(), 1, Integer::sum);
+                gainingWaiters.add(entry.getValue());
+            }
         }
 
-        // If the table was already in another's waiter's assignments, remove it from that waiter.
-        final Waiter previousWaiter = tableWaiterAssignments.get(table);
-        if ((previousWaiter != null) && (previousWaiter != waiter)) {
-            final Set<Table> previousWaiterTableAssignments = waiterTableAssignments.get(previousWaiter);
+        final Set<Waiter> rejectedWaiters = gainingWaiters.stream()
+                .filter(waiter -> assignmentStore.tableCount(restaurant, waiter) + waiterTableCountChanges.get(waiter)
+                        > MAX_TABLES_PER_RESTAURANT)
+                .collect(Collectors.toSet());
+
+        if (rejectedWaiters.isEmpty()) {
+            accepted.putAll(tableWaiters);
+            return;
+        }
 
-            if (previousWaiterTableAssignments != null) {
-                previousWaiterTableAssignments.remove(table);
+        for (final Map.Entry<Table, Waiter> entry: tableWaiters.entrySet()) {
+            final Waiter waiter = entry.getValue();
+            if (rejectedWaiters.contains(waiter)) {
+                tableResults.put(entry.getKey(), new AssignmentResult(
+                        nameOf(waiter), nameOf(restaurant), entry.getKey().getNumber(),
+                        AssignmentResult.Status.REJECTED, suggestOtherWaiters(waiter, restaurant)));
+            } else {
+                tableResults.put(entry.getKey(), result(waiter, entry.getKey(), AssignmentResult.Status.NOT_APPLIED));
             }
         }
+    }
+
+    /**
+     * The lock stripes of restaurants, sorted so that taking them in order cannot deadlock.
+     *
+     * @param restaurants
+     * @return
+     */
+    private static int[] stripesOf(Collection<Restaurant> restaurants) {
+        return restaurants.stream()
+                .mapToInt(restaurant -> Math.floorMod(restaurant.hashCode(), LOCK_STRIPES))
+                .distinct()
+                .sorted()
+                .toArray();
+    }
 
-        // In memory.
-        tableWaiterAssignments.put(table, waiter);
-        waiterTableAssignments.computeIfAbsent(waiter, waiter1 -> new HashSet<>()).add(table);
+    /**
+     * Run while holding the restaurant locks of the given stripes, taken in order.
+     *
+     * @param stripes sorted stripe indexes
+     * @param index the next stripe to lock
+     * @param runnable
+     */
+    private void withRestaurantLocks(int[] stripes, int index, Runnable runnable) {
+        if (index == stripes.length) {
+            runnable.run();
+            return;
+        }
 
-        // In persistence.
-        persistenceService.assign(table, waiter);
+        synchronized (restaurantLocks[stripes[index]]) {
+            withRestaurantLocks(stripes, index + 1, runnable);
+        }
+    }
 
-        // Success
-        return Collections.emptySet();
+    /**
+     * A batch result without suggestions.
+     *
+     * @param waiter may be null
+     * @param table may be null
+     * @param status
+     * @return
+     */
+    private static AssignmentResult result(Waiter waiter, Table table, AssignmentResult.Status status) {
+        final Optional<Table> tableOptional = Optional.ofNullable(table);
+
+        return new AssignmentResult(nameOf(waiter),
+                tableOptional.map(Table::getRestaurant).map(ManagementServiceImpl::nameOf).orElse(null),
+                tableOptional.map(Table::getNumber).orElse(null),
+                status);
+    }
+
+    private static String nameOf(Waiter waiter) {
+        return Optional.ofNullable(waiter).map(Waiter::getName).orElse(null);
+    }
+
+    private static String nameOf(Restaurant restaurant) {
+        return restaurant.getName();
     }
 
     /**
@@ -122,35 +1530,33 @@ public class ManagementServiceImpl implements ManagementService {
         // The constraint is to check if more than 4 tables already in a restaurant.
         // The check may be limited to this table's restaurant, and not all, since this is the one added.
 
-        return isLessThanMaximumTables(waiterTableAssignments.get(waiter), restaurant);
+        return isLessThanMaximumTables(restaurant, waiter);
     }
 
     /**
      * Find other waiters that meet the constraints. May be none.
+     * Package-private for benchmarks.
      *
      * @param waiter
      * @param restaurant
      * @return
      */
-    private Set<Waiter> suggestOtherWaiters(Waiter waiter, Restaurant restaurant) {
+    Set<Waiter> suggestOtherWaiters(Waiter waiter, Restaurant restaurant) {
         return waiters.stream()
-                .filter(w -> w != waiter)
-                .filter(w -> isLessThanMaximumTables(waiterTableAssignments.get(w), restaurant))
+                .filter(w -> !w.equals(waiter))
+                .filter(w -> isLessThanMaximumTables(restaurant, w))
                 .collect(Collectors.toSet());
     }
 
     /**
-     * Within maximum tables if no tables or less or equal to the maximum in the restaurant.
+     * Within maximum tables if no tables or less than the maximum in the restaurant.
      *
-     * @param tables
      * @param restaurant
+     * @param waiter
      * @return
      */
-    private static boolean isLessThanMaximumTables(Set<Table> tables, Restaurant restaurant) {
-        return tables == null
-                || tables.stream().filter(t -> restaurant.equals(t.getRestaurant())).count()
-                < MAX_TABLES_PER_RESTAURANT;
-
+    private boolean isLessThanMaximumTables(Restaurant restaurant, Waiter waiter) {
+        return assignmentStore.tableCount(restaurant, waiter) < MAX_TABLES_PER_RESTAURANT;
     }
 
     @Override
@@ -159,34 +1565,140 @@ public class ManagementServiceImpl implements ManagementService {
             throw new IllegalArgumentException("must provide restaurant");
         }
 
-        if (!loaded) {
-            loadFromPersistence();
-            loaded = true;
+        checkLoaded();
+
+        // Copy only this restaurant's tables with their assigned waiters, or empty if none.
+        return new HashMap<>(restaurantTableAssignments.getOrDefault(restaurant, Collections.emptyMap()));
+    }
+
+    @Override
+    public Page<Map.Entry<Table, Optional<Waiter>>> displayAssignments(String restaurantName, TableFilter tableFilter,
+                                                                     String after, int limit) {
+        checkLimit(limit);
+        checkLoaded();
+
+        final Restaurant restaurant = restaurantsByName.get(restaurantName);
+        if (restaurant == null) {
+            return new Page<>(Collections.emptyList(), null);
+        }
+
+        // Start from the position after the cursor in the sorted tables, which is also the key in the filtered ones.
+        final PageIndexes indexes = pageIndexes;
+        final List<Table> sortedTables = indexes.sortedRestaurantTables.get(restaurant);
+        final int start = firstAfter(sortedTables, Table::getNumber, after);
+
+        final Iterator<Table> iterator;
+        switch (tableFilter) {
+            case ASSIGNED:
+                iterator = indexes.restaurantAssignedTables.get(restaurant).tailMap(start, true).values().iterator();
+                break;
+            case UNASSIGNED:
+                iterator = indexes.restaurantUnassignedTables.get(restaurant).tailMap(start, true).values().iterator();
+                break;
+            default:
+                iterator = sortedTables.subList(start, sortedTables.size()).iterator();
+                break;
         }
 
-        // Go through the tables and pick up the assigned waiters, or empty if none.
-        return tables.stream()
-                .filter(table -> restaurant.equals(table.getRestaurant()))
-                .collect(Collectors.toMap(Function.identity(), table ->
-                Optional.ofNullable(tableWaiterAssignments.get(table))
-        ));
+        return page(iterator, limit, Table::getNumber, table ->
+                new AbstractMap.SimpleImmutableEntry<>(table, Optional.ofNullable(assignmentStore.waiterOf(table))));
     }
 
     @Override
-    public Map<Waiter, Map<Restaurant, Set<Table>>> displayTables() {
-        if (!loaded) {
-            loadFromPersistence();
-            loaded = true;
+    public Page<Map.Entry<Waiter, Map<Restaurant, Set<Table>>>> displayTables(String restaurantName, String after,
+                                                                              int limit) {
+        checkLimit(limit);
+        checkLoaded();
+
+        final PageIndexes indexes = pageIndexes;
+        final List<Waiter> sortedWaiters = indexes.sortedWaiters;
+        final int start = firstAfter(sortedWaiters, Waiter::getName, after);
+        final Map<Waiter, Map<Restaurant, Set<Table>>> views = waiterRestaurantTables;
+
+        if (restaurantName == null) {
+            return page(sortedWaiters.subList(start, sortedWaiters.size()).iterator(), limit, Waiter::getName,
+                    waiter -> new AbstractMap.SimpleImmutableEntry<>(waiter,
+                            views.getOrDefault(waiter, Collections.emptyMap())));
+        }
+
+        final Restaurant restaurant = restaurantsByName.get(restaurantName);
+        if (restaurant == null) {
+            return new Page<>(Collections.emptyList(), null);
+        }
+
+        return page(indexes.restaurantWaiters.get(restaurant).tailMap(start, true).values().iterator(), limit,
+                Waiter::getName, waiter -> new AbstractMap.SimpleImmutableEntry<>(waiter,
+                        Collections.singletonMap(restaurant, views.getOrDefault(waiter, Collections.emptyMap())
+                                .getOrDefault(restaurant, Collections.emptySet()))));
+    }
+
+    private static void checkLimit(int limit) {
+        if (limit < 1) {
+            throw new IllegalArgumentException("must provide a positive limit");
+        }
+    }
+
+    /**
+     * Position of the first item with a name after the given one, by binary search.
+     *
+     * @param sorted sorted by name
+     * @param name
+     * @param after or null for the first
+     * @param <T>
+     * @return
+     */
+    private static <T> int firstAfter(List<T> sorted, Function<T, String> name, String after) {
+        if (after == null) {
+            return 0;
+        }
+
+        int low = 0;
+        int high = sorted.size();
+        while (low < high) {
+            final int middle = (low + high) >>> 1;
+            if (NAME_ORDER.compare(name.apply(sorted.get(middle)), after) <= 0) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+
+        return low;
+    }
+
+    /**
+     * Take a page of items, with the name of the last one as the cursor if there are more.
+     *
+     * @param iterator
+     * @param limit
+     * @param name
+     * @param item
+     * @param <S> source type
+     * @param <T> item type
+     * @return
+     */
+    private static <S, T> Page<T> page(Iterator<S> iterator, int limit, Function<S, String> name,
+                                       Function<S, T> item) {
+        final List<T> items = new ArrayList<>();
+        S last = null;
+        while ((items.size() < limit) && iterator.hasNext()) {
+            last = iterator.next();
+            items.add(item.apply(last));
         }
 
-        final Map<Waiter, Map<Restaurant, Set<Table>>> result = new HashMap<>();
-        for (final Waiter waiter: waiterTableAssignments.keySet()) {
-            result.put(waiter,
-                waiterTableAssignments.getOrDefault(waiter, Collections.emptySet())
-                    .stream().collect(Collectors.groupingBy(Table::getRestaurant, Collectors.toSet())));
+        if (iterator.hasNext()) {
+            return new Page<>(items, name.apply(last));
         }
 
-        return result;
+        return new Page<>(items, null);
+    }
+
+    @Override
+    public Map<Waiter, Map<Restaurant, Set<Table>>> displayTables() {
+        checkLoaded();
+
+        // Each waiter's view is immutable, though views may be replaced while iterated.
+        return Collections.unmodifiableMap(waiterRestaurantTables);
     }
 
     @Override
@@ -195,39 +1707,30 @@ public class ManagementServiceImpl implements ManagementService {
             throw new IllegalArgumentException("must provide waiter");
         }
 
-        if (!loaded) {
-            loadFromPersistence();
-            loaded = true;
-        }
+        checkLoaded();
 
-        // Go through the waiter to table assignments if available, and group by the restaurant.
-        return waiterTableAssignments.getOrDefault(waiter, Collections.emptySet())
-                .stream().collect(Collectors.groupingBy(Table::getRestaurant, Collectors.toSet()));
+        // The waiter's current view, which is immutable.
+        return waiterRestaurantTables.getOrDefault(waiter, Collections.emptyMap());
     }
 
-    // Even the String-based methods need to load from persistence to work, before calling the actual method,
-    // because the data is needed for the String lookups.
+    // The String-based methods look up the loaded objects by name, before calling the actual method.
 
     /**
      * String based method for web API.
      */
     @Override
     public Set<Waiter> assignWaiter(String waiterName, String restaurantName, String tableNumber) {
-        if (!loaded) {
-            loadFromPersistence();
-            loaded = true;
-        }
+        checkLoaded();
 
-        final Optional<Waiter> waiterOptional =
-                waiters.stream().filter(waiter -> waiterName.equals(waiter.getName())).findFirst();
+        final Optional<Waiter> waiterOptional = Optional.ofNullable(waitersByName.get(waiterName));
 
         if (!waiterOptional.isPresent()) {
             return Collections.emptySet();
         }
 
-        final Optional<Table> tableOptional =
-                tables.stream().filter(table -> (restaurantName.equals(table.getRestaurant().getName())
-                && tableNumber.equals(table.getNumber()))).findFirst();
+        final Optional<Table> tableOptional = Optional.ofNullable(restaurantsByName.get(restaurantName))
+                .map(tablesByRestaurantAndNumber::get)
+                .map(tablesByNumber -> tablesByNumber.get(tableNumber));
 
         if (!tableOptional.isPresent()) {
             return Collections.emptySet();
@@ -240,16 +1743,68 @@ public class ManagementServiceImpl implements ManagementService {
      * String based method for web API.
      */
     @Override
-    public Map<Table, Optional<Waiter>> displayAssignments(String restaurantName) {
-        if (!loaded) {
-            loadFromPersistence();
-            loaded = true;
+    public List<AssignmentResult> assignWaitersByName(List<AssignmentRequest> assignmentRequests) {
+        if (assignmentRequests == null) {
+            throw new IllegalArgumentException("must provide assignments");
+        }
+
+        checkLoaded();
+
+        // Resolve the names. A later request for the same table replaces an earlier one.
+        final List<Table> requestTables = new ArrayList<>(assignmentRequests.size());
+        final Map<Table, Waiter> tableWaiters = new LinkedHashMap<>();
+        final Map<Table, Integer> lastRequestIndexes = new HashMap<>();
+        for (int i = 0; i < assignmentRequests.size(); i++) {
+            final AssignmentRequest assignmentRequest = assignmentRequests.get(i);
+
+            final Optional<Waiter> waiterOptional =
+                    Optional.ofNullable(waitersByName.get(assignmentRequest.getWaiterName()));
+
+            final Optional<Table> tableOptional =
+                    Optional.ofNullable(restaurantsByName.get(assignmentRequest.getRestaurantName()))
+                    .map(tablesByRestaurantAndNumber::get)
+                    .map(tablesByNumber -> tablesByNumber.get(assignmentRequest.getTableNumber()));
+
+            if (waiterOptional.isPresent() && tableOptional.isPresent()) {
+                tableWaiters.remove(tableOptional.get());
+                tableWaiters.put(tableOptional.get(), waiterOptional.get());
+                lastRequestIndexes.put(tableOptional.get(), i);
+            }
+
+            requestTables.add(tableOptional.filter(table -> waiterOptional.isPresent()).orElse(null));
+        }
+
+        final Map<Table, AssignmentResult> tableResults = assignWaitersToTables(tableWaiters);
+
+        final List<AssignmentResult> results = new ArrayList<>(assignmentRequests.size());
+        for (int i = 0; i < assignmentRequests.size(); i++) {
+            final AssignmentRequest assignmentRequest = assignmentRequests.get(i);
+            final Table table = requestTables.get(i);
+
+            if (table == null) {
+                results.add(new AssignmentResult(assignmentRequest.getWaiterName(),
+                        assignmentRequest.getRestaurantName(), assignmentRequest.getTableNumber(),
+                        AssignmentResult.Status.NOT_FOUND));
+            } else if (lastRequestIndexes.get(table) != i) {
+                results.add(new AssignmentResult(assignmentRequest.getWaiterName(),
+                        assignmentRequest.getRestaurantName(), assignmentRequest.getTableNumber(),
+                        AssignmentResult.Status.SUPERSEDED));
+            } else {
+                results.add(tableResults.get(table));
+            }
         }
 
-        final Optional<Restaurant> restaurantOptional =
-                tables.stream().map(Table::getRestaurant)
-                .filter(restaurant -> restaurantName.equals(restaurant.getName()))
-                .findFirst();
+        return results;
+    }
+
+    /**
+     * String based method for web API.
+     */
+    @Override
+    public Map<Table, Optional<Waiter>> displayAssignments(String restaurantName) {
+        checkLoaded();
+
+        final Optional<Restaurant> restaurantOptional = Optional.ofNullable(restaurantsByName.get(restaurantName));
 
         if (restaurantOptional.isPresent()) {
             return displayAssignments(restaurantOptional.get());
@@ -260,13 +1815,9 @@ public class ManagementServiceImpl implements ManagementService {
 
     @Override
     public Map<Restaurant, Set<Table>> displayTables(String waiterName) {
-        if (!loaded) {
-            loadFromPersistence();
-            loaded = true;
-        }
+        checkLoaded();
 
-        final Optional<Waiter> waiterOptional =
-                waiters.stream().filter(waiter -> waiterName.equals(waiter.getName())).findFirst();
+        final Optional<Waiter> waiterOptional = Optional.ofNullable(waitersByName.get(waiterName));
 
         if (!waiterOptional.isPresent()) {
             return Collections.emptyMap();
@@ -274,4 +1825,105 @@ public class ManagementServiceImpl implements ManagementService {
 
         return displayTables(waiterOptional.get());
     }
+
+    @Override
+    public long version() {
+        checkLoaded();
+
+        return version.get();
+    }
+
+    @Override
+    public long restaurantVersion(String restaurantName) {
+        checkLoaded();
+
+        return Optional.ofNullable(restaurantsByName.get(restaurantName))
+                .map(restaurantVersions::get)
+                .map(AtomicLong::get)
+                .orElse(0L);
+    }
+
+    @Override
+    public long waiterVersion(String waiterName) {
+        checkLoaded();
+
+        return Optional.ofNullable(waitersByName.get(waiterName))
+                .map(waiterVersions::get)
+                .map(AtomicLong::get)
+                .orElse(0L);
+    }
+
+    @Override
+    public Readiness readiness() {
+        if (loaded) {
+            return new Readiness(Readiness.Status.READY, loadMillis);
+        }
+
+        if (loadFailed) {
+            return new Readiness(Readiness.Status.FAILED, loadMillis);
+        }
+
+        if (loadStarted) {
+            return new Readiness(Readiness.Status.LOADING,
+                    TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - loadStartNanos));
+        }
+
+        return new Readiness(Readiness.Status.LOADING, 0);
+    }
+
+    /**
+     * Indexes for pages in name order, so that a page costs its size and not the whole data.
+     * The sorted lists are built when waiters or tables are loaded or added. The others change with assignments,
+     * only while holding the restaurant's lock, and are keyed by position in the sorted lists.
+     */
+    private static final class PageIndexes {
+        /**
+         * Waiters sorted by name.
+         */
+        private final List<Waiter> sortedWaiters;
+
+        /**
+         * Position of each waiter in the sorted waiters.
+         */
+        private final Map<Waiter, Integer> waiterPositions;
+
+        /**
+         * Tables of each restaurant sorted by number.
+         */
+        private final Map<Restaurant, List<Table>> sortedRestaurantTables;
+
+        /**
+         * Position of each table in its restaurant's sorted tables.
+         */
+        private final Map<Table, Integer> tablePositions;
+
+        /**
+         * Waiters with at least one table in each restaurant, by position.
+         */
+        private final Map<Restaurant, NavigableMap<Integer, Waiter>> restaurantWaiters;
+
+        /**
+         * Assigned tables of each restaurant, by position.
+         */
+        private final Map<Restaurant, NavigableMap<Integer, Table>> restaurantAssignedTables;
+
+        /**
+         * Unassigned tables of each restaurant, by position.
+         */
+        private final Map<Restaurant, NavigableMap<Integer, Table>> restaurantUnassignedTables;
+
+        private PageIndexes(List<Waiter> sortedWaiters, Map<Waiter, Integer> waiterPositions,
+                            Map<Restaurant, List<Table>> sortedRestaurantTables, Map<Table, Integer> tablePositions,
+                            Map<Restaurant, NavigableMap<Integer, Waiter>> restaurantWaiters,
+                            Map<Restaurant, NavigableMap<Integer, Table>> restaurantAssignedTables,
+                            Map<Restaurant, NavigableMap<Integer, Table>> restaurantUnassignedTables) {
+            this.sortedWaiters = sortedWaiters;
+            this.waiterPositions = waiterPositions;
+            this.sortedRestaurantTables = sortedRestaurantTables;
+            this.tablePositions = tablePositions;
+            this.restaurantWaiters = restaurantWaiters;
+            this.restaurantAssignedTables = restaurantAssignedTables;
+            this.restaurantUnassignedTables = restaurantUnassignedTables;
+        }
+    }
 }
@@ -0,0 +1,81 @@
+package com.mparaz.restaurant.service.impl;
+
+import com.mparaz.restaurant.Restaurant;
+import com.mparaz.restaurant.Table;
+import com.mparaz.restaurant.Waiter;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Assignments in concurrent maps keyed by the model objects.
+ */
+class MapAssignmentStore implements AssignmentStore {
+
+    private final Map<Table, Waiter> tableWaiters = new ConcurrentHashMap<>();
+
+    /**
+     * The counts for a restaurant are only changed while holding its lock.
+     */
+    private final Map<Restaurant, Map<Waiter, Integer>> restaurantWaiterTableCounts = new ConcurrentHashMap<>();
+
+    @Override
+    public void add(Collection<Table> tables, Collection<Waiter> waiters) {
+        // Nothing to prepare.
+    }
+
+    @Override
+    public void load(Map<Waiter, Set<Table>> waiterTables) {
+        // In parallel, a waiter at a time, so each waiter's counts are only merged by one thread.
+        waiterTables.entrySet().parallelStream().forEach(entry -> {
+            for (final Table table: entry.getValue()) {
+                tableWaiters.put(table, entry.getKey());
+                waiterTableCounts(table.getRestaurant()).merge(entry.getKey(), 1, Integer::sum);
+            }
+        });
+    }
+
+    @Override
+    public Waiter waiterOf(Table table) {
+        return tableWaiters.get(table);
+    }
+
+    @Override
+    public Waiter assign(Table table, Waiter waiter) {
+        final Map<Waiter, Integer> waiterTableCounts = waiterTableCounts(table.getRestaurant());
+
+        final Waiter previousWaiter = tableWaiters.put(table, waiter);
+
+        // Reassigning a table to its own waiter does not change the counts.
+        if (!waiter.equals(previousWaiter)) {
+            if (previousWaiter != null) {
+                waiterTableCounts.merge(previousWaiter, -1, Integer::sum);
+            }
+
+            waiterTableCounts.merge(waiter, 1, Integer::sum);
+        }
+
+        return previousWaiter;
+    }
+
+    @Override
+    public Waiter unassign(Table table) {
+        final Waiter previousWaiter = tableWaiters.remove(table);
+        if (previousWaiter != null) {
+            waiterTableCounts(table.getRestaurant()).merge(previousWaiter, -1, Integer::sum);
+        }
+
+        return previousWaiter;
+    }
+
+    @Override
+    public int tableCount(Restaurant restaurant, Waiter waiter) {
+        return waiterTableCounts(restaurant).getOrDefault(waiter, 0);
+    }
+
+    private Map<Waiter, Integer> waiterTableCounts(Restaurant restaurant) {
+        return restaurantWaiterTableCounts.computeIfAbsent(restaurant, restaurant1 -> new ConcurrentHashMap<>());
+    }
+}
@@ -1,5 +1,6 @@
 package com.mparaz.restaurant.service.impl;
 
+import com.mparaz.restaurant.Interner;
 import com.mparaz.restaurant.Restaurant;
 import com.mparaz.restaurant.Table;
 import com.mparaz.restaurant.Waiter;
@@ -9,15 +10,45 @@ import com.mparaz.restaurant.persistence.TableEntity;
 import com.mparaz.restaurant.persistence.TableEntityRepository;
 import com.mparaz.restaurant.persistence.WaiterEntity;
 import com.mparaz.restaurant.persistence.WaiterEntityRepository;
+import com.mparaz.restaurant.service.CacheStatistics;
+import com.mparaz.restaurant.service.ChangeLogEntry;
+import com.mparaz.restaurant.service.PersistedState;
 import com.mparaz.restaurant.service.PersistenceService;
+import com.mparaz.restaurant.service.ProvisioningResult;
+import org.hibernate.Hibernate;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.orm.jpa.EntityManagerFactoryUtils;
+import org.springframework.orm.jpa.SharedEntityManagerCreator;
 import org.springframework.stereotype.Service;
-
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.OptimisticLockException;
 import javax.transaction.Transactional;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.stream.Collectors;
 
 /**
@@ -28,28 +59,238 @@ import java.util.stream.Collectors;
 @Service
 public class PersistenceServiceImpl implements PersistenceService {
 
+    /**
+     * Rows per JDBC batch and per transaction when provisioning, and names or IDs per IN list when looking up.
+     */
+    private static final int PROVISIONING_CHUNK_SIZE = 1000;
+
+    /**
+     * Maximum tables and waiters each in the ID caches.
+     */
+    private static final int ID_CACHE_CAPACITY = 100000;
+
+    /**
+     * Column of the table ID in the rows of a range of tables.
+     */
+    private static final int TABLE_ID_COLUMN = 3;
+
+    /**
+     * Column of the table version in the rows of a range of tables.
+     */
+    private static final int TABLE_VERSION_COLUMN = 4;
+
     private final RestaurantEntityRepository restaurantEntityRepository;
 
     private final TableEntityRepository tableEntityRepository;
 
     private final WaiterEntityRepository waiterEntityRepository;
 
+    private final NamedParameterJdbcTemplate namedParameterJdbcTemplate;
+
+    private final TransactionTemplate transactionTemplate;
+
+    private final TransactionTemplate readOnlyTransactionTemplate;
+
+    private final SessionFactory sessionFactory;
+
+    private final EntityManager entityManager;
+
+    private final LoadProperties loadProperties;
+
+    // IDs of tables and waiters already persisted, so that assigning them does not need to look them up.
+    // A table's ID is cached with its version when last read or written by this instance.
+
+    private final IdCache<Table, VersionedId> tableIds = new IdCache<>(ID_CACHE_CAPACITY);
+
+    private final IdCache<Waiter, Long> waiterIds = new IdCache<>(ID_CACHE_CAPACITY);
+
     public PersistenceServiceImpl(RestaurantEntityRepository restaurantEntityRepository,
                                   TableEntityRepository tableEntityRepository,
-                                  WaiterEntityRepository waiterEntityRepository) {
+                                  WaiterEntityRepository waiterEntityRepository,
+                                  NamedParameterJdbcTemplate namedParameterJdbcTemplate,
+                                  PlatformTransactionManager transactionManager,
+                                  EntityManagerFactory entityManagerFactory,
+                                  LoadProperties loadProperties) {
         this.restaurantEntityRepository = restaurantEntityRepository;
         this.tableEntityRepository = tableEntityRepository;
         this.waiterEntityRepository = waiterEntityRepository;
+        this.namedParameterJdbcTemplate = namedParameterJdbcTemplate;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.readOnlyTransactionTemplate = new TransactionTemplate(transactionManager);
+        this.readOnlyTransactionTemplate.setReadOnly(true);
+        this.sessionFactory = entityManagerFactory.unwrap(SessionFactory.class);
+        this.entityManager = SharedEntityManagerCreator.createSharedEntityManager(entityManagerFactory);
+        this.loadProperties = loadProperties;
+    }
+
+    // Assignments are checked optimistically. A table's version is checked when its waiter is written, by Hibernate
+    // or against the version cached with its ID. After the tables are written, a waiter's version is read, its
+    // tables are counted, including any assigned by another instance and not yet loaded by this one, and then its
+    // version is increased only if unchanged, so that of concurrent assignments to the waiter, only the first
+    // to commit succeeds. Conflicts fail the whole transaction, to be retried.
+
+    @Override
+    @Transactional
+    public long assign(Table table, Waiter waiter) {
+        return assignAll(Collections.singletonMap(table, waiter));
     }
 
     @Override
     @Transactional
-    public void assign(Table table, Waiter waiter) {
+    public long assignAll(Map<Table, Waiter> tableWaiters) {
+        final Map<Long, Set<Long>> waiterTableIds = new LinkedHashMap<>();
+        for (final Map.Entry<Table, Waiter> entry : tableWaiters.entrySet()) {
+            assignTable(entry.getKey(), entry.getValue(), waiterTableIds);
+        }
+
+        for (final Map.Entry<Long, Set<Long>> entry : waiterTableIds.entrySet()) {
+            checkWaiter(entry.getKey(), entry.getValue());
+        }
+
+        // The tables stay locked until the transaction commits, so a later change to them is logged after
+        // every change seen here.
+        return latestChangeId();
+    }
+
+    /**
+     * Assign a waiter to a table, replacing any previous one, without checking the waiter.
+     *
+     * @param table
+     * @param waiter
+     * @param waiterTableIds the table's ID is added to the waiter's
+     */
+    private void assignTable(Table table, Waiter waiter, Map<Long, Set<Long>> waiterTableIds) {
+        // With both IDs known, write by ID without looking anything up.
+        final VersionedId tableId = tableIds.get(table);
+        final Long waiterId = waiterIds.get(waiter);
+        if ((tableId != null) && (waiterId != null)) {
+            assignByIds(table, waiter, tableId, waiterId);
+            waiterTableIds.computeIfAbsent(waiterId, id -> new HashSet<>()).add(tableId.getId());
+            return;
+        }
+
         final TableEntity tableEntity = createOrRetrieveTableEntity(table);
         final WaiterEntity waiterEntity = createOrRetrieveWaiterEntity(waiter);
 
+        // The table's waiter is the only one written. The waiters' tables are kept in step only if
+        // already loaded, since loading them is not needed to write.
+        final WaiterEntity previousWaiterEntity = tableEntity.getWaiter();
+        if ((previousWaiterEntity != null) && Hibernate.isInitialized(previousWaiterEntity.getTables())) {
+            previousWaiterEntity.getTables().remove(tableEntity);
+        }
+
         tableEntity.setWaiter(waiterEntity);
-        waiterEntity.getTables().add(tableEntity);
+        if (Hibernate.isInitialized(waiterEntity.getTables())) {
+            waiterEntity.getTables().add(tableEntity);
+        }
+
+        // Update the table first, so that the change is logged after any other change to it.
+        try {
+            entityManager.flush();
+        } catch (OptimisticLockException e) {
+            // The table may have been read from the cache, older than in the database.
+            evictAfterCompletion(TableEntity.class, tableEntity.getId());
+            throw EntityManagerFactoryUtils.convertJpaAccessExceptionIfPossible(e);
+        }
+
+        logChange(ChangeLogEntry.Kind.ASSIGNMENT, table, waiter);
+
+        tableIds.putAfterCommit(table, new VersionedId(tableEntity.getId(), tableEntity.getVersion()));
+        waiterIds.putAfterCommit(waiter, waiterEntity.getId());
+        waiterTableIds.computeIfAbsent(waiterEntity.getId(), id -> new HashSet<>()).add(tableEntity.getId());
+    }
+
+    /**
+     * Assign a waiter to a table by their IDs, replacing any previous one, if the table is unchanged since
+     * its version was cached.
+     *
+     * @param table
+     * @param waiter
+     * @param tableId
+     * @param waiterId
+     * @throws OptimisticLockingFailureException if the table was changed by another instance, or deleted,
+     *     so that it is looked up again when retried
+     */
+    private void assignByIds(Table table, Waiter waiter, VersionedId tableId, Long waiterId) {
+        final Map<String, Long> parameters = new HashMap<>();
+        parameters.put("tableId", tableId.getId());
+        parameters.put("waiterId", waiterId);
+        parameters.put("expectedVersion", tableId.getVersion());
+
+        if (namedParameterJdbcTemplate.update("update restaurant_table set waiter_id = :waiterId,"
+                + " version = version + 1 where id = :tableId and version = :expectedVersion", parameters) == 0) {
+            tableIds.remove(table);
+            evictAfterCompletion(TableEntity.class, tableId.getId());
+            throw new OptimisticLockingFailureException("Table " + tableId.getId() + " changed since version "
+                    + tableId.getVersion());
+        }
+
+        logChange(ChangeLogEntry.Kind.ASSIGNMENT, table, waiter);
+        evictAfterCompletion(TableEntity.class, tableId.getId());
+        tableIds.putAfterCommit(table, new VersionedId(tableId.getId(), tableId.getVersion() + 1));
+    }
+
+    /**
+     * Check that a waiter does not have more than the maximum tables in the restaurants of the tables just
+     * assigned, then increase the waiter's version if unchanged since the tables were counted.
+     *
+     * @param waiterId
+     * @param tableIds the tables just assigned to the waiter
+     * @throws OptimisticLockingFailureException if the waiter has too many tables, or was assigned concurrently
+     */
+    private void checkWaiter(Long waiterId, Set<Long> tableIds) {
+        final Long readVersion = namedParameterJdbcTemplate.queryForObject(
+                "select version from waiter where id = :waiterId",
+                Collections.singletonMap("waiterId", waiterId), Long.class);
+
+        final Map<String, Object> parameters = new HashMap<>();
+        parameters.put("waiterId", waiterId);
+        parameters.put("tableIds", tableIds);
+        parameters.put("maxTables", ManagementServiceImpl.MAX_TABLES_PER_RESTAURANT);
+
+        final List<Long> fullRestaurantIds = namedParameterJdbcTemplate.queryForList(
+                "select restaurant_id from restaurant_table where waiter_id = :waiterId"
+                        + " and restaurant_id in (select restaurant_id from restaurant_table where id in (:tableIds))"
+                        + " group by restaurant_id having count(*) > :maxTables",
+                parameters, Long.class);
+
+        // Only possible if assigned concurrently, since the tables were counted before assigning.
+        if (!fullRestaurantIds.isEmpty()) {
+            throw new OptimisticLockingFailureException("Waiter " + waiterId + " has more than "
+                    + ManagementServiceImpl.MAX_TABLES_PER_RESTAURANT + " tables in restaurant "
+                    + fullRestaurantIds.get(0) + " after concurrent assignments");
+        }
+
+        final Map<String, Long> versionParameters = new HashMap<>();
+        versionParameters.put("waiterId", waiterId);
+        versionParameters.put("readVersion", readVersion);
+
+        if (namedParameterJdbcTemplate.update("update waiter set version = version + 1"
+                + " where id = :waiterId and version = :readVersion", versionParameters) == 0) {
+            throw new OptimisticLockingFailureException("Waiter " + waiterId + " assigned concurrently");
+        }
+        evictAfterCompletion(WaiterEntity.class, waiterId);
+    }
+
+    /**
+     * Evict an entity changed with JDBC, or found out of date, from the entity cache once the current transaction
+     * completes, so that it is read again from the database.
+     *
+     * @param entityClass
+     * @param id
+     */
+    private void evictAfterCompletion(Class<?> entityClass, Long id) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            sessionFactory.getCache().evictEntity(entityClass, id);
+            return;
+        }
+
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+            @Override
+            public void afterCompletion(int status) {
+                sessionFactory.getCache().evictEntity(entityClass, id);
+            }
+        });
     }
 
     private TableEntity createOrRetrieveTableEntity(Table table) {
@@ -82,6 +323,7 @@ public class PersistenceServiceImpl implements PersistenceService {
             tableEntity = tableEntityRepository.save(tableEntity);
 
             restaurantEntity.getTables().add(tableEntity);
+            logChange(ChangeLogEntry.Kind.TABLE, table, null);
         }
 
         return tableEntity;
@@ -97,6 +339,7 @@ public class PersistenceServiceImpl implements PersistenceService {
             waiterEntity = new WaiterEntity();
             waiterEntity.setName(waiter.getName());
             waiterEntity = waiterEntityRepository.save(waiterEntity);
+            logChange(ChangeLogEntry.Kind.WAITER, null, waiter);
         }
 
         return waiterEntity;
@@ -114,17 +357,252 @@ public class PersistenceServiceImpl implements PersistenceService {
         createOrRetrieveWaiterEntity(waiter);
     }
 
+    // Bulk provisioning works with JDBC directly, since Hibernate does not batch inserts of entities
+    // with identity-generated keys. Existing rows are looked up by set, and new rows are inserted in batches,
+    // a chunk per transaction.
+
     @Override
-    public Set<Table> loadTables() {
-        final Set<Table> result = new HashSet<>();
+    public ProvisioningResult provision(Set<Table> tables, Set<Waiter> waiters) {
+        final long startNanos = System.nanoTime();
+
+        // Restaurants.
+        final Set<String> restaurantNames =
+                tables.stream().map(table -> table.getRestaurant().getName()).collect(Collectors.toSet());
+
+        final Map<String, Long> restaurantIds = findIdsByName("restaurant", restaurantNames);
+        final List<String> newRestaurantNames = restaurantNames.stream()
+                .filter(name -> !restaurantIds.containsKey(name))
+                .collect(Collectors.toList());
+        for (final List<String> chunk : chunks(newRestaurantNames)) {
+            transactionTemplate.execute(status -> insertNames("restaurant", chunk));
+        }
+        restaurantIds.putAll(findIdsByName("restaurant", newRestaurantNames));
+
+        // Tables, which are new if their number is not yet in their restaurant.
+        final Map<Long, Map<String, VersionedId>> existingTableIds = findTableIds(restaurantIds.values());
+        final Map<Table, VersionedId> tableIdsByTable = new HashMap<>();
+        final List<Table> newTables = new ArrayList<>();
+        for (final Table table : tables) {
+            final VersionedId tableId = findTableId(table, restaurantIds, existingTableIds);
+            if (tableId == null) {
+                newTables.add(table);
+            } else {
+                tableIdsByTable.put(table, tableId);
+            }
+        }
+
+        for (final List<Table> chunk : chunks(newTables)) {
+            transactionTemplate.execute(status -> {
+                insertTables(chunk.stream()
+                        .map(table -> new Object[] {table.getNumber(),
+                                restaurantIds.get(table.getRestaurant().getName())})
+                        .collect(Collectors.toList()));
+                logChanges(chunk.stream()
+                        .map(table -> changeRow(ChangeLogEntry.Kind.TABLE, table, null))
+                        .collect(Collectors.toList()));
+                return null;
+            });
+        }
+
+        // Waiters.
+        final Set<String> waiterNames = waiters.stream().map(Waiter::getName).collect(Collectors.toSet());
+        final Map<String, Long> waiterIdsByName = findIdsByName("waiter", waiterNames);
+        final List<String> newWaiterNames = waiterNames.stream()
+                .filter(name -> !waiterIdsByName.containsKey(name))
+                .collect(Collectors.toList());
+        for (final List<String> chunk : chunks(newWaiterNames)) {
+            transactionTemplate.execute(status -> {
+                insertNames("waiter", chunk);
+                logChanges(chunk.stream()
+                        .map(name -> changeRow(ChangeLogEntry.Kind.WAITER, null, new Waiter(name)))
+                        .collect(Collectors.toList()));
+                return null;
+            });
+        }
+
+        // Within a caller's transaction, the rows are not yet committed, so their IDs are not cached.
+        if (!TransactionSynchronizationManager.isActualTransactionActive()) {
+            seedIds(tables, newTables, restaurantIds, tableIdsByTable, waiters, newWaiterNames, waiterIdsByName);
+        }
+
+        // Rows were inserted with JDBC, so cached "not found" query results are out of date.
+        sessionFactory.getCache().evictAllRegions();
 
-        for (final TableEntity tableEntity : tableEntityRepository.findAll()) {
-            result.add(createTable(tableEntity));
+        return new ProvisioningResult(newRestaurantNames.size(), newTables.size(), newWaiterNames.size(),
+                System.nanoTime() - startNanos);
+    }
+
+    /**
+     * Find the IDs of rows in a table with a unique name column.
+     *
+     * @param tableName restaurant or waiter
+     * @param names
+     * @return Map of name to ID, for those that exist.
+     */
+    private Map<String, Long> findIdsByName(String tableName, Collection<String> names) {
+        final Map<String, Long> result = new HashMap<>();
+
+        for (final List<String> chunk : chunks(new ArrayList<>(names))) {
+            namedParameterJdbcTemplate.query("select id, name from " + tableName + " where name in (:names)",
+                    Collections.singletonMap("names", chunk),
+                    (RowCallbackHandler) rs -> result.put(rs.getString("name"), rs.getLong("id")));
         }
 
         return result;
     }
 
+    /**
+     * Insert rows into a table with only a name column besides the ID, in the current transaction.
+     *
+     * @param tableName restaurant or waiter
+     * @param names a chunk of names
+     * @return the update counts
+     */
+    private int[] insertNames(String tableName, List<String> names) {
+        return namedParameterJdbcTemplate.getJdbcOperations().batchUpdate(
+                "insert into " + tableName + " (name) values (?)",
+                names.stream().map(name -> new Object[] {name}).collect(Collectors.toList()));
+    }
+
+    /**
+     * Find the IDs and versions of the tables already in restaurants.
+     *
+     * @param restaurantIds
+     * @return Map of restaurant ID to the IDs and versions of its tables by number.
+     */
+    private Map<Long, Map<String, VersionedId>> findTableIds(Collection<Long> restaurantIds) {
+        final Map<Long, Map<String, VersionedId>> result = new HashMap<>();
+
+        for (final List<Long> chunk : chunks(new ArrayList<>(restaurantIds))) {
+            namedParameterJdbcTemplate.query("select id, restaurant_id, number, version from restaurant_table"
+                            + " where restaurant_id in (:restaurantIds)",
+                    Collections.singletonMap("restaurantIds", chunk),
+                    (RowCallbackHandler) rs -> result.computeIfAbsent(rs.getLong("restaurant_id"),
+                            restaurantId -> new HashMap<>()).put(rs.getString("number"),
+                            new VersionedId(rs.getLong("id"), rs.getLong("version"))));
+        }
+
+        return result;
+    }
+
+    /**
+     * The ID and version of a table.
+     *
+     * @param table
+     * @param restaurantIds restaurant IDs by name
+     * @param tableIdsByRestaurant from findTableIds
+     * @return null if not found
+     */
+    private static VersionedId findTableId(Table table, Map<String, Long> restaurantIds,
+                                           Map<Long, Map<String, VersionedId>> tableIdsByRestaurant) {
+        return tableIdsByRestaurant
+                .getOrDefault(restaurantIds.get(table.getRestaurant().getName()), Collections.emptyMap())
+                .get(table.getNumber());
+    }
+
+    /**
+     * Cache the IDs of provisioned tables and waiters, looking up those just inserted.
+     *
+     * @param tables
+     * @param newTables those inserted
+     * @param restaurantIds restaurant IDs by name
+     * @param tableIdsByTable IDs and versions of the tables that existed, added to
+     * @param waiters
+     * @param newWaiterNames those inserted
+     * @param waiterIdsByName IDs of the waiters that existed, added to
+     */
+    private void seedIds(Set<Table> tables, List<Table> newTables, Map<String, Long> restaurantIds,
+                         Map<Table, VersionedId> tableIdsByTable, Set<Waiter> waiters, List<String> newWaiterNames,
+                         Map<String, Long> waiterIdsByName) {
+        final Map<Long, Map<String, VersionedId>> newTableIds = findTableIds(newTables.stream()
+                .map(table -> restaurantIds.get(table.getRestaurant().getName()))
+                .collect(Collectors.toSet()));
+        for (final Table table : newTables) {
+            tableIdsByTable.put(table, findTableId(table, restaurantIds, newTableIds));
+        }
+
+        for (final Table table : tables) {
+            tableIds.seed(table, tableIdsByTable.get(table));
+        }
+
+        waiterIdsByName.putAll(findIdsByName("waiter", newWaiterNames));
+        for (final Waiter waiter : waiters) {
+            waiterIds.seed(waiter, waiterIdsByName.get(waiter.getName()));
+        }
+    }
+
+    /**
+     * Insert tables, and add them to their restaurant's tables as createTable does.
+     *
+     * @param tables table number and restaurant ID for each table
+     */
+    private void insertTables(List<Object[]> tables) {
+        namedParameterJdbcTemplate.getJdbcOperations().batchUpdate(
+                "insert into restaurant_table (number, restaurant_id) values (?, ?)", tables);
+
+        final Set<Object> restaurantIds = tables.stream().map(table -> table[1]).collect(Collectors.toSet());
+        namedParameterJdbcTemplate.update("insert into restaurant_tables (restaurant_id, tables_id)"
+                        + " select t.restaurant_id, t.id from restaurant_table t"
+                        + " where t.restaurant_id in (:restaurantIds)"
+                        + " and not exists (select 1 from restaurant_tables rt where rt.tables_id = t.id)",
+                Collections.singletonMap("restaurantIds", restaurantIds));
+    }
+
+    // Every change is logged in the same transaction as the change itself, so that other instances
+    // can apply it in ID order.
+
+    /**
+     * Log a change in the current transaction.
+     *
+     * @param kind
+     * @param table null for a waiter change
+     * @param waiter null for a table change
+     */
+    private void logChange(ChangeLogEntry.Kind kind, Table table, Waiter waiter) {
+        logChanges(Collections.singletonList(changeRow(kind, table, waiter)));
+    }
+
+    /**
+     * Log changes in the current transaction, in order.
+     *
+     * @param rows from changeRow
+     */
+    private void logChanges(List<Object[]> rows) {
+        namedParameterJdbcTemplate.getJdbcOperations().batchUpdate(
+                "insert into change_log (kind, restaurant_name, table_number, waiter_name) values (?, ?, ?, ?)",
+                rows);
+    }
+
+    private static Object[] changeRow(ChangeLogEntry.Kind kind, Table table, Waiter waiter) {
+        String restaurantName = null;
+        String tableNumber = null;
+        if (table != null) {
+            restaurantName = table.getRestaurant().getName();
+            tableNumber = table.getNumber();
+        }
+
+        String waiterName = null;
+        if (waiter != null) {
+            waiterName = waiter.getName();
+        }
+
+        return new Object[] {kind.name(), restaurantName, tableNumber, waiterName};
+    }
+
+    private static <T> List<List<T>> chunks(List<T> list) {
+        final List<List<T>> result = new ArrayList<>();
+        for (int i = 0; i < list.size(); i += PROVISIONING_CHUNK_SIZE) {
+            result.add(list.subList(i, Math.min(i + PROVISIONING_CHUNK_SIZE, list.size())));
+        }
+
+        return result;
+    }
+
+    @Override
+    public Set<Table> loadTables() {
+        return mapTables();
+    }
+
     @Override
     public Set<Waiter> loadWaiters() {
         final Set<Waiter> result = new HashSet<>();
@@ -138,27 +616,233 @@ public class PersistenceServiceImpl implements PersistenceService {
 
     @Override
     public Map<Waiter, Set<Table>> loadWaiterTableAssignments() {
-        final Map<Waiter, Set<Table>> result = new HashMap<>();
+        return mapWaiterTableAssignments();
+    }
 
-        // Naive mapping from entity objects to model objects, without object reuse.
-        for (final WaiterEntity waiterEntity : waiterEntityRepository.findAll()) {
-            result.put(createWaiter(waiterEntity),
-                    waiterEntity.getTables().stream().map(PersistenceServiceImpl::createTable)
-                            .collect(Collectors.toSet()));
+    @Override
+    public PersistedState loadAll() {
+        // Within a caller's transaction, the queries run in it one after another, so that its own changes are seen.
+        if (TransactionSynchronizationManager.isActualTransactionActive()) {
+            return loadAll(Runnable::run, false);
+        }
+
+        final ExecutorService executorService = Executors.newFixedThreadPool(loadProperties.getThreads(),
+                runnable -> {
+                    final Thread thread = new Thread(runnable, "persistence-loader");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        try {
+            return loadAll(executorService, true);
+        } finally {
+            executorService.shutdownNow();
+        }
+    }
+
+    /**
+     * Load the waiters, and the tables with their waiters in ranges of IDs, at once on the executor.
+     * Each query runs in its own read-only transaction, so they may see different commits.
+     * A table is only in one range, so its waiter is consistent with it.
+     *
+     * @param executor
+     * @param seedIds whether to cache the IDs loaded, which are only known to be committed outside a caller's
+     *     transaction
+     * @return
+     */
+    private PersistedState loadAll(Executor executor, boolean seedIds) {
+        // Shared between the ranges, so that each restaurant and waiter is mapped to one model object.
+        final Interner interner = new Interner();
+
+        final CompletableFuture<List<Object[]>> waiterNamesAndIds = CompletableFuture.supplyAsync(() ->
+                readOnlyTransactionTemplate.execute(status -> waiterEntityRepository.findAllNamesAndIds()),
+                executor);
+
+        final List<CompletableFuture<Map<Table, Waiter>>> tableWaiterRanges = new ArrayList<>();
+        final Long minId = tableEntityRepository.findMinId();
+        final Long maxId = tableEntityRepository.findMaxId();
+        if (minId != null && maxId != null) {
+            final long partitionSize = loadProperties.getPartitionSize();
+            for (long fromId = minId; fromId <= maxId; fromId += partitionSize) {
+                final long rangeFromId = fromId;
+                tableWaiterRanges.add(CompletableFuture.supplyAsync(() -> mapTableWaiters(
+                        readOnlyTransactionTemplate.execute(status -> tableEntityRepository
+                                .findNumbersRestaurantNamesWaiterNamesIdsAndVersionsByIdRange(rangeFromId,
+                                        rangeFromId + partitionSize)), seedIds, interner), executor));
+            }
+        }
+
+        // Every waiter, including those without tables.
+        final Map<Waiter, Set<Table>> waiterTableAssignments = new HashMap<>();
+        for (final Object[] row : join(waiterNamesAndIds)) {
+            final Waiter waiter = interner.waiter((String) row[0]);
+            waiterTableAssignments.put(waiter, new HashSet<>());
+            if (seedIds) {
+                waiterIds.seed(waiter, (Long) row[1]);
+            }
+        }
+
+        final Set<Table> tables = new HashSet<>();
+        for (final CompletableFuture<Map<Table, Waiter>> tableWaiterRange : tableWaiterRanges) {
+            for (final Map.Entry<Table, Waiter> entry : join(tableWaiterRange).entrySet()) {
+                tables.add(entry.getKey());
+
+                // Includes a waiter created after the waiters were loaded.
+                if (entry.getValue() != null) {
+                    waiterTableAssignments.computeIfAbsent(entry.getValue(), waiter -> new HashSet<>())
+                            .add(entry.getKey());
+                }
+            }
+        }
+
+        return new PersistedState(tables, new HashSet<>(waiterTableAssignments.keySet()), waiterTableAssignments);
+    }
+
+    /**
+     * Wait for a load, and throw its exception if it failed.
+     */
+    private static <T> T join(CompletableFuture<T> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+
+            throw e;
+        }
+    }
+
+    @Override
+    public Map<Table, Waiter> loadTableWaiters(Restaurant restaurant) {
+        return mapTableWaiters(
+                tableEntityRepository.findNumbersRestaurantNamesWaiterNamesIdsAndVersionsByRestaurantName(
+                        restaurant.getName()), false, new Interner());
+    }
+
+    @Override
+    public CacheStatistics cacheStatistics() {
+        // Only counted when hibernate.generate_statistics is set.
+        final Statistics statistics = sessionFactory.getStatistics();
+
+        return new CacheStatistics(statistics.getSecondLevelCacheHitCount(),
+                statistics.getSecondLevelCacheMissCount(), statistics.getSecondLevelCachePutCount(),
+                statistics.getQueryCacheHitCount(), statistics.getQueryCacheMissCount(),
+                statistics.getQueryCachePutCount());
+    }
+
+    @Override
+    public long latestChangeId() {
+        return namedParameterJdbcTemplate.getJdbcOperations().queryForObject(
+                "select coalesce(max(id), 0) from change_log", Long.class);
+    }
+
+    @Override
+    public long earliestChangeId() {
+        return namedParameterJdbcTemplate.getJdbcOperations().queryForObject(
+                "select coalesce(min(id), 0) from change_log", Long.class);
+    }
+
+    @Override
+    public List<ChangeLogEntry> loadChanges(long afterId, int limit) {
+        final Interner interner = new Interner();
+
+        return namedParameterJdbcTemplate.query(
+                "select id, kind, restaurant_name, table_number, waiter_name from change_log"
+                        + " where id > :afterId order by id limit :limit",
+                new MapSqlParameterSource("afterId", afterId).addValue("limit", limit),
+                (rs, rowNum) -> {
+                    Table table = null;
+                    final String restaurantName = rs.getString("restaurant_name");
+                    if (restaurantName != null) {
+                        table = interner.table(rs.getString("table_number"), restaurantName);
+                    }
+
+                    Waiter waiter = null;
+                    final String waiterName = rs.getString("waiter_name");
+                    if (waiterName != null) {
+                        waiter = interner.waiter(waiterName);
+                    }
+
+                    return new ChangeLogEntry(rs.getLong("id"), ChangeLogEntry.Kind.valueOf(rs.getString("kind")),
+                            table, waiter);
+                });
+    }
+
+    @Override
+    public void pruneChanges(long beforeId) {
+        namedParameterJdbcTemplate.update("delete from change_log where id < :beforeId",
+                Collections.singletonMap("beforeId", beforeId));
+    }
+
+    // Mapping from flat query rows to model objects. Each load interns its own model objects, so that within it
+    // each restaurant, table and waiter is one object, and nothing is held once it is done.
+
+    /**
+     * Map all tables.
+     *
+     * @return
+     */
+    private Set<Table> mapTables() {
+        final Interner interner = new Interner();
+        final Set<Table> result = new HashSet<>();
+
+        for (final Object[] row : tableEntityRepository.findAllNumbersAndRestaurantNames()) {
+            result.add(interner.table((String) row[0], (String) row[1]));
         }
 
         return result;
     }
 
-    private static Waiter createWaiter(WaiterEntity waiterEntity) {
-        return new Waiter(waiterEntity.getName());
+    /**
+     * Map all waiters with their tables, including waiters without tables.
+     *
+     * @return
+     */
+    private Map<Waiter, Set<Table>> mapWaiterTableAssignments() {
+        final Interner interner = new Interner();
+        final Map<Waiter, Set<Table>> result = new HashMap<>();
+
+        for (final Object[] row : waiterEntityRepository.findAllNamesWithTableNumbersAndRestaurantNames()) {
+            final Set<Table> waiterTables =
+                    result.computeIfAbsent(interner.waiter((String) row[0]), waiter -> new HashSet<>());
+
+            if (row[1] != null) {
+                waiterTables.add(interner.table((String) row[1], (String) row[2]));
+            }
+        }
+
+        return result;
     }
 
-    private static Table createTable(TableEntity tableEntity) {
-        return new Table(tableEntity.getNumber(), createRestaurant(tableEntity.getRestaurant()));
+    /**
+     * Map a range of tables with their waiters. May run for several ranges at once.
+     *
+     * @param rows table number, restaurant name, waiter name or null, table ID and version
+     * @param seedIds whether to cache the table IDs and versions
+     * @param interner of the load
+     * @return the waiter of each table, or null if not assigned
+     */
+    private Map<Table, Waiter> mapTableWaiters(List<Object[]> rows, boolean seedIds, Interner interner) {
+        final Map<Table, Waiter> result = new HashMap<>();
+
+        for (final Object[] row : rows) {
+            Waiter waiter = null;
+            if (row[2] != null) {
+                waiter = interner.waiter((String) row[2]);
+            }
+
+            final Table table = interner.table((String) row[0], (String) row[1]);
+            result.put(table, waiter);
+            if (seedIds) {
+                tableIds.seed(table,
+                        new VersionedId((Long) row[TABLE_ID_COLUMN], (Long) row[TABLE_VERSION_COLUMN]));
+            }
+        }
+
+        return result;
     }
 
-    private static Restaurant createRestaurant(RestaurantEntity restaurantEntity) {
-        return new Restaurant(restaurantEntity.getName());
+    private static Waiter createWaiter(WaiterEntity waiterEntity) {
+        return new Waiter(waiterEntity.getName());
     }
 }
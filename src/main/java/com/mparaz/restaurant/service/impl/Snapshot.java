@@ -0,0 +1,30 @@
+package com.mparaz.restaurant.service.impl;
+
+import com.mparaz.restaurant.service.PersistedState;
+
+/**
+ * State read from a snapshot file, with the change log position it is up to date with.
+ */
+final class Snapshot {
+    private final long changeId;
+
+    private final PersistedState persistedState;
+
+    Snapshot(long changeId, PersistedState persistedState) {
+        this.changeId = changeId;
+        this.persistedState = persistedState;
+    }
+
+    /**
+     * ID of the change up to which all changes are in the snapshot.
+     *
+     * @return
+     */
+    long getChangeId() {
+        return changeId;
+    }
+
+    PersistedState getPersistedState() {
+        return persistedState;
+    }
+}
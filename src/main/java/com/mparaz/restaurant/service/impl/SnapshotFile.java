@@ -0,0 +1,272 @@
+package com.mparaz.restaurant.service.impl;
+
+import com.mparaz.restaurant.Interner;
+import com.mparaz.restaurant.Restaurant;
+import com.mparaz.restaurant.Table;
+import com.mparaz.restaurant.Waiter;
+import com.mparaz.restaurant.service.PersistedState;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.zip.CRC32;
+
+/**
+ * Restaurants, tables, waiters and assignments in a binary file, read and written through a memory mapping.
+ * <p>
+ * The file is a header, with the change ID and a CRC32 checksum of the body, and a body of the restaurant names,
+ * the waiter names, and each table as its restaurant's index, its number and its waiter's index.
+ * A snapshot is written to a temporary file, forced to disk, and then renamed over the previous one, so that a crash
+ * leaves either the previous snapshot or the new one. A file that does not match its checksum is not read.
+ */
+final class SnapshotFile {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(SnapshotFile.class);
+
+    /**
+     * "RSNP".
+     */
+    private static final int MAGIC = 0x52534E50;
+
+    private static final int VERSION = 1;
+
+    /**
+     * Magic, version, change ID, body length and checksum.
+     */
+    private static final int HEADER_BYTES = Integer.BYTES + Integer.BYTES + Long.BYTES + Long.BYTES + Long.BYTES;
+
+    private static final int CHANGE_ID_OFFSET = Integer.BYTES + Integer.BYTES;
+
+    private static final int BODY_LENGTH_OFFSET = CHANGE_ID_OFFSET + Long.BYTES;
+
+    private static final int CHECKSUM_OFFSET = BODY_LENGTH_OFFSET + Long.BYTES;
+
+    /**
+     * Waiter index of a table without a waiter.
+     */
+    private static final int NO_WAITER = -1;
+
+    private final Path path;
+
+    private final Path temporaryPath;
+
+    SnapshotFile(Path path) {
+        this.path = path;
+        this.temporaryPath = path.resolveSibling(path.getFileName() + ".tmp");
+    }
+
+    /**
+     * Write a snapshot, replacing the previous one.
+     *
+     * @param changeId the change up to which all changes are in the snapshot
+     * @param tables
+     * @param waiters
+     * @param waiterOfTable the waiter of a table, or null if none. Read once per table.
+     * @throws IOException
+     */
+    void write(long changeId, Collection<Table> tables, Collection<Waiter> waiters,
+               Function<Table, Waiter> waiterOfTable) throws IOException {
+        // Fix the content first, since the assignments may change while writing, and the size must be known.
+        final Map<Waiter, Integer> waiterIndexes = new HashMap<>();
+        final List<byte[]> waiterNames = new ArrayList<>();
+        long bodyLength = Integer.BYTES + Integer.BYTES + Integer.BYTES;
+        for (final Waiter waiter : waiters) {
+            bodyLength += index(waiter, waiter.getName(), waiterIndexes, waiterNames);
+        }
+
+        final Map<Restaurant, Integer> restaurantIndexes = new HashMap<>();
+        final List<byte[]> restaurantNames = new ArrayList<>();
+        final Table[] tableArray = tables.toArray(new Table[0]);
+        final int[] tableRestaurantIndexes = new int[tableArray.length];
+        final int[] tableWaiterIndexes = new int[tableArray.length];
+        for (int i = 0; i < tableArray.length; i++) {
+            final Table table = tableArray[i];
+            final Restaurant restaurant = table.getRestaurant();
+            bodyLength += index(restaurant, restaurant.getName(), restaurantIndexes, restaurantNames);
+            tableRestaurantIndexes[i] = restaurantIndexes.get(restaurant);
+
+            final Waiter waiter = waiterOfTable.apply(table);
+            tableWaiterIndexes[i] = NO_WAITER;
+            if (waiter != null) {
+                bodyLength += index(waiter, waiter.getName(), waiterIndexes, waiterNames);
+                tableWaiterIndexes[i] = waiterIndexes.get(waiter);
+            }
+
+            bodyLength += Integer.BYTES + Integer.BYTES + table.getNumber().getBytes(StandardCharsets.UTF_8).length
+                    + Integer.BYTES;
+        }
+
+        if (HEADER_BYTES + bodyLength > Integer.MAX_VALUE) {
+            throw new IOException("snapshot of " + bodyLength + " bytes is too large to map");
+        }
+
+        try (FileChannel channel = FileChannel.open(temporaryPath, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            final MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_BYTES + bodyLength);
+            buffer.position(HEADER_BYTES);
+
+            putNames(buffer, restaurantNames);
+            putNames(buffer, waiterNames);
+            buffer.putInt(tableArray.length);
+            for (int i = 0; i < tableArray.length; i++) {
+                buffer.putInt(tableRestaurantIndexes[i]);
+                putName(buffer, tableArray[i].getNumber().getBytes(StandardCharsets.UTF_8));
+                buffer.putInt(tableWaiterIndexes[i]);
+            }
+
+            buffer.putInt(0, MAGIC);
+            buffer.putInt(Integer.BYTES, VERSION);
+            buffer.putLong(CHANGE_ID_OFFSET, changeId);
+            buffer.putLong(BODY_LENGTH_OFFSET, bodyLength);
+            buffer.putLong(CHECKSUM_OFFSET, checksum(buffer));
+            buffer.force();
+        }
+
+        Files.move(temporaryPath, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * Read the snapshot.
+     *
+     * @return null if there is none, or it is not a complete snapshot of this version
+     * @throws IOException
+     */
+    Snapshot read() throws IOException {
+        if (!Files.exists(path)) {
+            return null;
+        }
+
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            final long size = channel.size();
+            if ((size < HEADER_BYTES) || (size > Integer.MAX_VALUE)) {
+                LOGGER.warn("Ignoring snapshot {} of {} bytes", path, size);
+                return null;
+            }
+
+            final MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            if ((buffer.getInt(0) != MAGIC) || (buffer.getInt(Integer.BYTES) != VERSION)
+                    || (buffer.getLong(BODY_LENGTH_OFFSET) != size - HEADER_BYTES)
+                    || (buffer.getLong(CHECKSUM_OFFSET) != checksum(buffer))) {
+                LOGGER.warn("Ignoring snapshot {} that is incomplete, corrupt or of another version", path);
+                return null;
+            }
+
+            buffer.position(HEADER_BYTES);
+            return new Snapshot(buffer.getLong(CHANGE_ID_OFFSET), readState(buffer));
+        } catch (BufferUnderflowException | IndexOutOfBoundsException e) {
+            LOGGER.warn("Ignoring snapshot {} that could not be read", path, e);
+            return null;
+        }
+    }
+
+    private static PersistedState readState(ByteBuffer buffer) {
+        final NameReader nameReader = new NameReader();
+        final Interner interner = new Interner();
+
+        final String[] restaurantNames = new String[buffer.getInt()];
+        for (int i = 0; i < restaurantNames.length; i++) {
+            restaurantNames[i] = nameReader.read(buffer);
+        }
+
+        final Waiter[] waiterArray = new Waiter[buffer.getInt()];
+        final Map<Waiter, Set<Table>> waiterTableAssignments = new HashMap<>();
+        for (int i = 0; i < waiterArray.length; i++) {
+            waiterArray[i] = interner.waiter(nameReader.read(buffer));
+            waiterTableAssignments.put(waiterArray[i], new HashSet<>());
+        }
+
+        final int tableCount = buffer.getInt();
+        final Set<Table> tables = new HashSet<>(tableCount * 2);
+        for (int i = 0; i < tableCount; i++) {
+            final String restaurantName = restaurantNames[buffer.getInt()];
+            final Table table = interner.table(nameReader.read(buffer), restaurantName);
+            tables.add(table);
+
+            final int waiterIndex = buffer.getInt();
+            if (waiterIndex != NO_WAITER) {
+                waiterTableAssignments.get(waiterArray[waiterIndex]).add(table);
+            }
+        }
+
+        final Set<Waiter> waiters = new HashSet<>();
+        for (final Waiter waiter : waiterArray) {
+            waiters.add(waiter);
+        }
+
+        return new PersistedState(tables, waiters, waiterTableAssignments);
+    }
+
+    /**
+     * Give an object the next index, if it has none.
+     *
+     * @return the bytes added to the body
+     */
+    private static <T> long index(T key, String name, Map<T, Integer> indexes, List<byte[]> names) {
+        if (indexes.containsKey(key)) {
+            return 0;
+        }
+
+        final byte[] encodedName = name.getBytes(StandardCharsets.UTF_8);
+        indexes.put(key, names.size());
+        names.add(encodedName);
+        return Integer.BYTES + encodedName.length;
+    }
+
+    private static void putNames(ByteBuffer buffer, List<byte[]> names) {
+        buffer.putInt(names.size());
+        for (final byte[] name : names) {
+            putName(buffer, name);
+        }
+    }
+
+    private static void putName(ByteBuffer buffer, byte[] name) {
+        buffer.putInt(name.length);
+        buffer.put(name);
+    }
+
+    /**
+     * Checksum of the body, after the header.
+     */
+    private static long checksum(ByteBuffer buffer) {
+        final ByteBuffer body = buffer.duplicate();
+        body.position(HEADER_BYTES);
+
+        final CRC32 crc32 = new CRC32();
+        crc32.update(body);
+        return crc32.getValue();
+    }
+
+    /**
+     * Reads names through one buffer, grown to the longest.
+     */
+    private static final class NameReader {
+        private byte[] bytes = new byte[0];
+
+        String read(ByteBuffer buffer) {
+            final int length = buffer.getInt();
+            if (length > bytes.length) {
+                bytes = new byte[length];
+            }
+
+            buffer.get(bytes, 0, length);
+            return new String(bytes, 0, length, StandardCharsets.UTF_8);
+        }
+    }
+}
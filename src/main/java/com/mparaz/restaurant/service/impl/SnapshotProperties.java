@@ -0,0 +1,53 @@
+package com.mparaz.restaurant.service.impl;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+/**
+ * Configuration of snapshots of the loaded state, from restaurant.snapshot.* properties.
+ */
+@Component
+@ConfigurationProperties(prefix = "restaurant.snapshot")
+public class SnapshotProperties {
+    private static final long DEFAULT_INTERVAL_MILLIS = 300000;
+
+    /**
+     * When enabled, the state is written to a file periodically and on shutdown, and loaded from it on start
+     * instead of from the database. Only for a database that outlives the application.
+     */
+    private boolean enabled = false;
+
+    /**
+     * The snapshot file. A temporary file next to it is written first.
+     */
+    private String path = "restaurant.snapshot";
+
+    /**
+     * How long to wait between snapshots.
+     */
+    private long intervalMillis = DEFAULT_INTERVAL_MILLIS;
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public String getPath() {
+        return path;
+    }
+
+    public void setPath(String path) {
+        this.path = path;
+    }
+
+    public long getIntervalMillis() {
+        return intervalMillis;
+    }
+
+    public void setIntervalMillis(long intervalMillis) {
+        this.intervalMillis = intervalMillis;
+    }
+}
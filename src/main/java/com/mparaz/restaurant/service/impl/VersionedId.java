@@ -0,0 +1,24 @@
+package com.mparaz.restaurant.service.impl;
+
+/**
+ * An entity's ID, with its version when read, to update it by ID only if unchanged since.
+ */
+final class VersionedId {
+
+    private final long id;
+
+    private final long version;
+
+    VersionedId(long id, long version) {
+        this.id = id;
+        this.version = version;
+    }
+
+    long getId() {
+        return id;
+    }
+
+    long getVersion() {
+        return version;
+    }
+}
@@ -0,0 +1,318 @@
+package com.mparaz.restaurant.service.impl;
+
+import com.mparaz.restaurant.Table;
+import com.mparaz.restaurant.Waiter;
+import com.mparaz.restaurant.service.PersistenceService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+
+/**
+ * Persists assignments in the background, a batch per transaction (group commit).
+ * <p>
+ * Assignments are queued in order and written by a single thread, so they are persisted in the same order.
+ * The queue is bounded, so that assigning blocks when the writer falls behind.
+ * Remaining assignments are flushed on close. The writer is told to stop through the queue, after the last
+ * assignment, and is never interrupted, so that persistence is never interrupted partway.
+ * <p>
+ * Assignments that fail to persist have already been applied in memory, so the tables are given to a failure
+ * listener, to restore them from persistence.
+ */
+class WriteBehindAssignmentWriter {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(WriteBehindAssignmentWriter.class);
+
+    /**
+     * Queued last on close, to stop the writer. Compared by identity.
+     */
+    private static final Map.Entry<Table, Waiter> CLOSE = new AbstractMap.SimpleImmutableEntry<>(null, null);
+
+    /**
+     * How often closing checks that the writer is still alive while the queue is full.
+     */
+    private static final long CLOSE_CHECK_MILLIS = 100;
+
+    private final PersistenceService persistenceService;
+
+    private final BlockingQueue<Map.Entry<Table, Waiter>> queue;
+
+    private final long flushIntervalNanos;
+
+    private final int maxBatchSize;
+
+    private final Thread writerThread;
+
+    /**
+     * Called with the tables whose assignments failed to persist.
+     */
+    private final Consumer<Set<Table>> failureListener;
+
+    /**
+     * Number of assignments of each table queued or being persisted. Absent if none.
+     */
+    private final Map<Table, Integer> pendingWrites = new ConcurrentHashMap<>();
+
+    /**
+     * Held shared to queue, and exclusively to close, so that nothing is queued after the writer is told to stop.
+     */
+    private final ReadWriteLock closeLock = new ReentrantReadWriteLock();
+
+    /**
+     * Guarded by the close lock.
+     */
+    private boolean closed;
+
+    /**
+     * Create and start the writer.
+     *
+     * @param persistenceService
+     * @param writeBehindProperties
+     * @param failureListener called when flushing, so it must not wait for assignments to be written
+     */
+    WriteBehindAssignmentWriter(PersistenceService persistenceService, WriteBehindProperties writeBehindProperties,
+                                Consumer<Set<Table>> failureListener) {
+        this.persistenceService = persistenceService;
+        this.failureListener = failureListener;
+        this.queue = new ArrayBlockingQueue<>(writeBehindProperties.getQueueCapacity());
+        this.flushIntervalNanos = TimeUnit.MILLISECONDS.toNanos(writeBehindProperties.getFlushIntervalMillis());
+        this.maxBatchSize = writeBehindProperties.getMaxBatchSize();
+
+        writerThread = new Thread(this::run, "assignment-writer");
+        writerThread.setDaemon(true);
+        writerThread.start();
+    }
+
+    /**
+     * Queue an assignment to be persisted, blocking while the queue is full.
+     *
+     * @param table
+     * @param waiter
+     */
+    void write(Table table, Waiter waiter) {
+        closeLock.readLock().lock();
+        try {
+            if (!closed) {
+                pendingWrites.merge(table, 1, Integer::sum);
+                queue.put(new AbstractMap.SimpleImmutableEntry<>(table, waiter));
+                return;
+            }
+        } catch (InterruptedException e) {
+            written(table);
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("interrupted while queueing assignment", e);
+        } finally {
+            closeLock.readLock().unlock();
+        }
+
+        // Closed, and the writer has finished, so persist directly.
+        persistenceService.assign(table, waiter);
+    }
+
+    /**
+     * Whether a table has assignments queued or being persisted.
+     *
+     * @param table
+     * @return
+     */
+    boolean isPending(Table table) {
+        return pendingWrites.containsKey(table);
+    }
+
+    /**
+     * Stop the writer, after flushing the queued assignments. Assignments written meanwhile wait, and are then
+     * persisted directly, after the queued ones.
+     */
+    void close() {
+        closeLock.writeLock().lock();
+        try {
+            if (closed) {
+                return;
+            }
+
+            closed = true;
+            stopWriter();
+        } finally {
+            closeLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Queue the close marker and wait for the writer to finish, without interrupting it.
+     * Must hold the close lock exclusively.
+     */
+    private void stopWriter() {
+        boolean interrupted = false;
+
+        boolean markerQueued = false;
+        while (!markerQueued && writerThread.isAlive()) {
+            try {
+                markerQueued = queue.offer(CLOSE, CLOSE_CHECK_MILLIS, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+
+        while (writerThread.isAlive()) {
+            try {
+                writerThread.join();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+
+        // Only if the writer failed, since it stops at the marker, after everything queued before it.
+        final List<Map.Entry<Table, Waiter>> remaining = new ArrayList<>();
+        queue.drainTo(remaining);
+        remaining.removeIf(entry -> entry == CLOSE);
+        if (!remaining.isEmpty()) {
+            LOGGER.warn("Assignment writer stopped early, persisting {} remaining assignments", remaining.size());
+            for (int i = 0; i < remaining.size(); i += maxBatchSize) {
+                flush(new ArrayList<>(remaining.subList(i, Math.min(i + maxBatchSize, remaining.size()))));
+            }
+        }
+
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void run() {
+        final List<Map.Entry<Table, Waiter>> batch = new ArrayList<>();
+
+        boolean open = true;
+        while (open) {
+            try {
+                open = gather(batch);
+            } catch (InterruptedException e) {
+                // Only the close marker stops the writer, so that nothing queued is left behind.
+                LOGGER.warn("Assignment writer interrupted, continuing until closed");
+            }
+
+            flush(batch);
+        }
+    }
+
+    /**
+     * Wait for an assignment, then gather more until the batch is full or the flush interval has passed.
+     *
+     * @param batch added to
+     * @return false once the close marker is reached, after which nothing more is queued
+     * @throws InterruptedException
+     */
+    private boolean gather(List<Map.Entry<Table, Waiter>> batch) throws InterruptedException {
+        batch.add(queue.take());
+
+        final long deadline = System.nanoTime() + flushIntervalNanos;
+        while ((batch.size() < maxBatchSize) && !closing(batch)) {
+            queue.drainTo(batch, maxBatchSize - batch.size());
+
+            final long remainingNanos = deadline - System.nanoTime();
+            if ((batch.size() >= maxBatchSize) || closing(batch) || (remainingNanos <= 0)) {
+                break;
+            }
+
+            final Map.Entry<Table, Waiter> next = queue.poll(remainingNanos, TimeUnit.NANOSECONDS);
+            if (next == null) {
+                break;
+            }
+
+            batch.add(next);
+        }
+
+        if (closing(batch)) {
+            batch.remove(batch.size() - 1);
+            return false;
+        }
+
+        return true;
+    }
+
+    /**
+     * Whether a batch ends with the close marker, which is always the last one queued.
+     */
+    private static boolean closing(List<Map.Entry<Table, Waiter>> batch) {
+        return batch.get(batch.size() - 1) == CLOSE;
+    }
+
+    /**
+     * Persist a batch in one transaction, then clear it, and report the tables that failed.
+     *
+     * @param batch
+     */
+    private void flush(List<Map.Entry<Table, Waiter>> batch) {
+        if (batch.isEmpty()) {
+            return;
+        }
+
+        // Only the last assignment of a table in the batch needs to be persisted.
+        final Map<Table, Waiter> tableWaiters = new LinkedHashMap<>();
+        for (final Map.Entry<Table, Waiter> entry : batch) {
+            tableWaiters.remove(entry.getKey());
+            tableWaiters.put(entry.getKey(), entry.getValue());
+        }
+
+        final List<Table> batchTables = new ArrayList<>(batch.size());
+        for (final Map.Entry<Table, Waiter> entry : batch) {
+            batchTables.add(entry.getKey());
+        }
+
+        batch.clear();
+
+        final Set<Table> failedTables = new HashSet<>();
+        try {
+            persistenceService.assignAll(tableWaiters);
+        } catch (RuntimeException e) {
+            // One bad assignment fails the whole transaction, so persist the rest one by one.
+            LOGGER.warn("Failed to persist a batch of {} assignments, retrying one by one", tableWaiters.size(), e);
+
+            for (final Map.Entry<Table, Waiter> entry : tableWaiters.entrySet()) {
+                try {
+                    persistenceService.assign(entry.getKey(), entry.getValue());
+                } catch (RuntimeException e1) {
+                    LOGGER.error("Failed to persist assignment of {} to {}", entry.getKey(), entry.getValue(), e1);
+                    failedTables.add(entry.getKey());
+                }
+            }
+        }
+
+        // Only once persisted or failed, so that a table is pending until its assignment is in persistence.
+        for (final Table table : batchTables) {
+            written(table);
+        }
+
+        if (!failedTables.isEmpty()) {
+            try {
+                failureListener.accept(failedTables);
+            } catch (RuntimeException e) {
+                LOGGER.error("Failed to handle {} assignments that failed to persist", failedTables.size(), e);
+            }
+        }
+    }
+
+    /**
+     * Count an assignment of a table as no longer pending.
+     */
+    private void written(Table table) {
+        pendingWrites.computeIfPresent(table, (table1, count) -> {
+            if (count <= 1) {
+                return null;
+            }
+
+            return count - 1;
+        });
+    }
+}
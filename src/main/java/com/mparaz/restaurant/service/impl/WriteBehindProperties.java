@@ -0,0 +1,69 @@
+package com.mparaz.restaurant.service.impl;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+/**
+ * Configuration of write-behind persistence of assignments, from restaurant.write-behind.* properties.
+ */
+@Component
+@ConfigurationProperties(prefix = "restaurant.write-behind")
+public class WriteBehindProperties {
+    private static final long DEFAULT_FLUSH_INTERVAL_MILLIS = 50;
+
+    private static final int DEFAULT_QUEUE_CAPACITY = 10000;
+
+    private static final int DEFAULT_MAX_BATCH_SIZE = 500;
+
+    /**
+     * When disabled, assignments are persisted on the request thread.
+     */
+    private boolean enabled = false;
+
+    /**
+     * How long to gather assignments into a batch, after the first one arrives.
+     */
+    private long flushIntervalMillis = DEFAULT_FLUSH_INTERVAL_MILLIS;
+
+    /**
+     * Assignments waiting to be persisted. When full, assigning blocks until there is room.
+     */
+    private int queueCapacity = DEFAULT_QUEUE_CAPACITY;
+
+    /**
+     * Assignments persisted per transaction.
+     */
+    private int maxBatchSize = DEFAULT_MAX_BATCH_SIZE;
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public long getFlushIntervalMillis() {
+        return flushIntervalMillis;
+    }
+
+    public void setFlushIntervalMillis(long flushIntervalMillis) {
+        this.flushIntervalMillis = flushIntervalMillis;
+    }
+
+    public int getQueueCapacity() {
+        return queueCapacity;
+    }
+
+    public void setQueueCapacity(int queueCapacity) {
+        this.queueCapacity = queueCapacity;
+    }
+
+    public int getMaxBatchSize() {
+        return maxBatchSize;
+    }
+
+    public void setMaxBatchSize(int maxBatchSize) {
+        this.maxBatchSize = maxBatchSize;
+    }
+}
@@ -0,0 +1,38 @@
+package com.mparaz.restaurant.web;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * JSON request body for bulk provisioning.
+ * <p>
+ * Example: {"restaurants": {"Restaurant1": ["Table1", "Table2"]}, "waiters": ["Waiter1"]}
+ */
+public class ProvisioningRequest {
+    /**
+     * Restaurant names to their table numbers.
+     */
+    private Map<String, List<String>> restaurants = Collections.emptyMap();
+
+    /**
+     * Waiter names.
+     */
+    private List<String> waiters = Collections.emptyList();
+
+    public Map<String, List<String>> getRestaurants() {
+        return restaurants;
+    }
+
+    public void setRestaurants(Map<String, List<String>> restaurants) {
+        this.restaurants = restaurants;
+    }
+
+    public List<String> getWaiters() {
+        return waiters;
+    }
+
+    public void setWaiters(List<String> waiters) {
+        this.waiters = waiters;
+    }
+}
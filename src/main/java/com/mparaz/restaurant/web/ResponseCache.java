@@ -0,0 +1,112 @@
+package com.mparaz.restaurant.web;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Cache of JSON responses, serialized and gzip-compressed once per version of their data.
+ * <p>
+ * An entry is replaced when a newer version is asked for, so it does not need to be invalidated separately.
+ *
+ * @param <K> the key, such as a restaurant or waiter name
+ */
+class ResponseCache<K> {
+
+    private final ObjectMapper objectMapper;
+
+    private final Map<K, CachedResponse> cachedResponses = new ConcurrentHashMap<>();
+
+    ResponseCache(ObjectMapper objectMapper) {
+        this.objectMapper = objectMapper;
+    }
+
+    /**
+     * The response for a key at a version, serialized from the body if not already cached for that version.
+     * Empty bodies are cheap and are not cached, so that requests for unknown names cannot fill the cache.
+     *
+     * @param key
+     * @param version version of the data the body is built from
+     * @param body supplies the body to serialize
+     * @return
+     */
+    CachedResponse get(K key, long version, Supplier<Map<String, ?>> body) {
+        final CachedResponse cachedResponse = cachedResponses.get(key);
+        if ((cachedResponse != null) && (cachedResponse.getVersion() == version)) {
+            return cachedResponse;
+        }
+
+        final Map<String, ?> map = body.get();
+        final CachedResponse created = new CachedResponse(version, serialize(map));
+
+        if (!map.isEmpty()) {
+            // Keep the newer one, if another request got there first.
+            cachedResponses.merge(key, created, ResponseCache::newer);
+        }
+
+        return created;
+    }
+
+    private byte[] serialize(Map<String, ?> map) {
+        try {
+            return objectMapper.writeValueAsBytes(map);
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("cannot serialize response", e);
+        }
+    }
+
+    private static CachedResponse newer(CachedResponse existing, CachedResponse replacement) {
+        if (replacement.getVersion() >= existing.getVersion()) {
+            return replacement;
+        }
+
+        return existing;
+    }
+
+    /**
+     * A serialized response, with its gzip-compressed copy.
+     */
+    static final class CachedResponse {
+        private final long version;
+
+        private final byte[] json;
+
+        private final byte[] gzip;
+
+        CachedResponse(long version, byte[] json) {
+            this.version = version;
+            this.json = json;
+            this.gzip = compress(json);
+        }
+
+        long getVersion() {
+            return version;
+        }
+
+        byte[] getJson() {
+            return json;
+        }
+
+        byte[] getGzip() {
+            return gzip;
+        }
+
+        private static byte[] compress(byte[] bytes) {
+            final ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
+            try (GZIPOutputStream gzipOutputStream = new GZIPOutputStream(byteArrayOutputStream)) {
+                gzipOutputStream.write(bytes);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+
+            return byteArrayOutputStream.toByteArray();
+        }
+    }
+}
@@ -1,18 +1,43 @@
 package com.mparaz.restaurant.web;
 
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.mparaz.restaurant.Restaurant;
 import com.mparaz.restaurant.Table;
 import com.mparaz.restaurant.Waiter;
+import com.mparaz.restaurant.service.AssignmentRequest;
+import com.mparaz.restaurant.service.AssignmentResult;
+import com.mparaz.restaurant.service.CacheStatistics;
 import com.mparaz.restaurant.service.ManagementService;
+import com.mparaz.restaurant.service.NotReadyException;
+import com.mparaz.restaurant.service.Page;
 import com.mparaz.restaurant.service.PersistenceService;
+import com.mparaz.restaurant.service.ProvisioningResult;
+import com.mparaz.restaurant.service.Readiness;
+import com.mparaz.restaurant.service.TableFilter;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.ExceptionHandler;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.WebRequest;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
-import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
 import java.util.Map;
+import java.util.Optional;
 import java.util.Set;
+import java.util.TreeMap;
 import java.util.stream.Collectors;
 
 /**
@@ -27,62 +52,259 @@ public class RestaurantController {
 
     private static final int WAITERS = 8;
 
+    private static final String GZIP = "gzip";
+
+    private static final int DEFAULT_PAGE_SIZE = 100;
+
+    private static final int MAX_PAGE_SIZE = 1000;
+
+    /**
+     * Projection of a page to only the names of the waiters or table numbers.
+     */
+    private static final String NAMES = "names";
+
+    /**
+     * Key of the response for all waiters.
+     */
+    private static final String ALL_WAITERS = "";
+
+    /**
+     * Part of every ETag, since the versions start again when the application restarts.
+     */
+    private final long startTimeMillis = System.currentTimeMillis();
+
     private final ManagementService managementService;
 
     private final PersistenceService persistenceService;
 
+    /**
+     * Serialized assignments, by restaurant name.
+     */
+    private final ResponseCache<String> assignmentsCache;
+
+    /**
+     * Serialized tables, by waiter name.
+     */
+    private final ResponseCache<String> waiterTablesCache;
+
+    /**
+     * Serialized tables for all waiters, under a single key.
+     */
+    private final ResponseCache<String> allTablesCache;
+
+    private final JsonFactory jsonFactory;
+
+    private final ObjectMapper objectMapper;
+
     public RestaurantController(ManagementService managementService,
-                                PersistenceService persistenceService) {
+                                PersistenceService persistenceService,
+                                ObjectMapper objectMapper) {
         this.managementService = managementService;
         this.persistenceService = persistenceService;
+        this.assignmentsCache = new ResponseCache<>(objectMapper);
+        this.waiterTablesCache = new ResponseCache<>(objectMapper);
+        this.allTablesCache = new ResponseCache<>(objectMapper);
+        this.jsonFactory = objectMapper.getFactory();
+        this.objectMapper = objectMapper;
     }
 
     /**
      * Sets up the data, as it's simpler than doing it from startup.
      */
     @PostMapping("/setup")
-    public void setup() {
+    public ProvisioningResult setup() {
+        final Set<Table> tables = new HashSet<>();
         for (int i = 1; i <= RESTAURANTS; i++) {
             final Restaurant restaurant = new Restaurant("Restaurant" + i);
 
             for (int j = 1; j <= TABLES_PER_RESTAURANT; j++) {
-                final Table table = new Table("Table" + j, restaurant);
-
-                persistenceService.createTable(table);
+                tables.add(new Table("Table" + j, restaurant));
             }
         }
 
+        final Set<Waiter> waiters = new HashSet<>();
         for (int i = 1; i <= WAITERS; i++) {
-            final Waiter waiter = new Waiter("Waiter" + i);
-            persistenceService.createWaiter(waiter);
+            waiters.add(new Waiter("Waiter" + i));
         }
+
+        return persistenceService.provision(tables, waiters);
+    }
+
+    /**
+     * HTTP POST for bulk provisioning of restaurants, tables and waiters. Existing ones are skipped.
+     */
+    @PostMapping("/provision")
+    public ProvisioningResult provision(@RequestBody ProvisioningRequest provisioningRequest) {
+        final Set<Table> tables = new HashSet<>();
+        for (final Map.Entry<String, List<String>> entry : provisioningRequest.getRestaurants().entrySet()) {
+            final Restaurant restaurant = new Restaurant(entry.getKey());
+
+            for (final String tableNumber : entry.getValue()) {
+                tables.add(new Table(tableNumber, restaurant));
+            }
+        }
+
+        final Set<Waiter> waiters = provisioningRequest.getWaiters().stream()
+                .map(Waiter::new)
+                .collect(Collectors.toSet());
+
+        return persistenceService.provision(tables, waiters);
     }
 
     /**
-     * HTTP GET for assignments.
+     * HTTP GET for assignments, conditional on the restaurant's version.
+     * Table numbers to their waiter's name, or null if none.
+     * With any of the optional parameters, returns a page instead, in table number order.
      */
     @GetMapping("/assignments/{restaurantName}")
-    public Map<Table, Set<Waiter>> displayAssignments(@PathVariable String restaurantName) {
-        // Extra mapping needed since Optional does not render to JSON properly.
-        return managementService.displayAssignments(restaurantName)
-                .entrySet().stream().collect(Collectors.toMap(Map.Entry::getKey,
-                        e -> e.getValue().map(Collections::singleton).orElseGet(Collections::emptySet)));
+    public ResponseEntity<byte[]> displayAssignments(@PathVariable String restaurantName,
+                                                     @RequestParam(required = false) Boolean assigned,
+                                                     @RequestParam(required = false) String after,
+                                                     @RequestParam(required = false) Integer limit,
+                                                     @RequestParam(required = false) String fields,
+                                                     WebRequest webRequest) throws JsonProcessingException {
+        final long version = managementService.restaurantVersion(restaurantName);
+        final boolean paged = (assigned != null) || (after != null) || (limit != null) || (fields != null);
+        final boolean gzip = !paged && acceptsGzip(webRequest);
+        if (webRequest.checkNotModified(etag(version, gzip))) {
+            return null;
+        }
+
+        if (paged) {
+            final Page<Map.Entry<Table, Optional<Waiter>>> page = managementService.displayAssignments(
+                    restaurantName, tableFilter(assigned), after, pageSize(limit));
+
+            if (NAMES.equals(fields)) {
+                return pageResponse(page.getItems().stream()
+                        .map(entry -> entry.getKey().getNumber())
+                        .collect(Collectors.toList()), page.getNext());
+            }
+
+            final Map<String, String> items = new LinkedHashMap<>();
+            for (final Map.Entry<Table, Optional<Waiter>> entry : page.getItems()) {
+                items.put(entry.getKey().getNumber(), entry.getValue().map(Waiter::getName).orElse(null));
+            }
+
+            return pageResponse(items, page.getNext());
+        }
+
+        return response(assignmentsCache.get(restaurantName, version, () -> {
+            final Map<String, String> body = new TreeMap<>();
+            for (final Map.Entry<Table, Optional<Waiter>> entry
+                    : managementService.displayAssignments(restaurantName).entrySet()) {
+                body.put(entry.getKey().getNumber(), entry.getValue().map(Waiter::getName).orElse(null));
+            }
+
+            return body;
+        }), gzip);
     }
 
     /**
-     * HTTP GET for tables for one waiter.
+     * HTTP GET for tables for one waiter, conditional on the waiter's version.
+     * Restaurant names to their table numbers.
      */
     @GetMapping("/tables/{waiterName}")
-    public Map<Restaurant, Set<Table>> displayTables(@PathVariable String waiterName) {
-        return managementService.displayTables(waiterName);
+    public ResponseEntity<byte[]> displayTables(@PathVariable String waiterName, WebRequest webRequest) {
+        final long version = managementService.waiterVersion(waiterName);
+        final boolean gzip = acceptsGzip(webRequest);
+        if (webRequest.checkNotModified(etag(version, gzip))) {
+            return null;
+        }
+
+        return response(waiterTablesCache.get(waiterName, version,
+                () -> tableNumbersByRestaurantName(managementService.displayTables(waiterName))), gzip);
     }
 
     /**
-     * HTTP GET for tables for all waiters.
+     * HTTP GET for tables for all waiters, conditional on the overall version.
+     * Waiter names to restaurant names to their table numbers.
+     * With any of the optional parameters, returns a page instead, in waiter name order.
      */
-    @GetMapping("/tables")
-    public Map<Waiter, Map<Restaurant, Set<Table>>> displayTables() {
-        return managementService.displayTables();
+    @GetMapping(value = "/tables", params = "!stream")
+    public ResponseEntity<byte[]> displayTables(@RequestParam(required = false) String restaurant,
+                                                @RequestParam(required = false) String after,
+                                                @RequestParam(required = false) Integer limit,
+                                                @RequestParam(required = false) String fields,
+                                                WebRequest webRequest) throws JsonProcessingException {
+        final long version = managementService.version();
+        final boolean paged = (restaurant != null) || (after != null) || (limit != null) || (fields != null);
+        final boolean gzip = !paged && acceptsGzip(webRequest);
+        if (webRequest.checkNotModified(etag(version, gzip))) {
+            return null;
+        }
+
+        if (paged) {
+            final Page<Map.Entry<Waiter, Map<Restaurant, Set<Table>>>> page =
+                    managementService.displayTables(restaurant, after, pageSize(limit));
+
+            if (NAMES.equals(fields)) {
+                return pageResponse(page.getItems().stream()
+                        .map(entry -> entry.getKey().getName())
+                        .collect(Collectors.toList()), page.getNext());
+            }
+
+            final Map<String, Map<String, List<String>>> items = new LinkedHashMap<>();
+            for (final Map.Entry<Waiter, Map<Restaurant, Set<Table>>> entry : page.getItems()) {
+                items.put(entry.getKey().getName(), tableNumbersByRestaurantName(entry.getValue()));
+            }
+
+            return pageResponse(items, page.getNext());
+        }
+
+        return response(allTablesCache.get(ALL_WAITERS, version, () -> {
+            final Map<String, Map<String, List<String>>> body = new TreeMap<>();
+            for (final Map.Entry<Waiter, Map<Restaurant, Set<Table>>> entry
+                    : managementService.displayTables().entrySet()) {
+                body.put(entry.getKey().getName(), tableNumbersByRestaurantName(entry.getValue()));
+            }
+
+            return body;
+        }), gzip);
+    }
+
+    /**
+     * HTTP GET for tables for all waiters, written out as they are read instead of being built up first.
+     * The same form as without streaming, but unsorted and uncompressed.
+     */
+    @GetMapping(value = "/tables", params = "stream")
+    public ResponseEntity<StreamingResponseBody> streamTables(WebRequest webRequest) {
+        final long version = managementService.version();
+        if (webRequest.checkNotModified(etag(version, false))) {
+            return null;
+        }
+
+        return ResponseEntity.ok()
+                .contentType(MediaType.APPLICATION_JSON_UTF8)
+                .body(new TablesJsonStreamer(jsonFactory, managementService.displayTables()));
+    }
+
+    /**
+     * HTTP GET for whether the state has been loaded, for a load balancer to send requests only when ready.
+     */
+    @GetMapping("/ready")
+    public ResponseEntity<Readiness> ready() {
+        final Readiness readiness = managementService.readiness();
+        if (readiness.getStatus() == Readiness.Status.READY) {
+            return ResponseEntity.ok(readiness);
+        }
+
+        return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).body(readiness);
+    }
+
+    /**
+     * Reject requests that arrive before the state has been loaded.
+     */
+    @ExceptionHandler(NotReadyException.class)
+    public ResponseEntity<Readiness> notReady() {
+        return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).body(managementService.readiness());
+    }
+
+    /**
+     * HTTP GET for the hit and miss counts of the entity and query caches.
+     */
+    @GetMapping("/cache-statistics")
+    public CacheStatistics cacheStatistics() {
+        return persistenceService.cacheStatistics();
     }
 
     /**
@@ -94,4 +316,154 @@ public class RestaurantController {
                                     @PathVariable String tableNumber) {
         return managementService.assignWaiter(waiterName, restaurantName, tableNumber);
     }
+
+    /**
+     * HTTP POST for a batch of assignments, applied in one pass.
+     */
+    @PostMapping("/assign")
+    public List<AssignmentResult> assignWaiters(@RequestBody List<AssignmentRequest> assignmentRequests) {
+        return managementService.assignWaitersByName(assignmentRequests);
+    }
+
+    /**
+     * Strong ETag for a version. The version is read before the data, so the data is at least as new.
+     * The compressed representation has its own ETag.
+     *
+     * @param version
+     * @param gzip
+     * @return
+     */
+    private String etag(long version, boolean gzip) {
+        final StringBuilder etag = new StringBuilder("\"").append(startTimeMillis).append('-').append(version);
+        if (gzip) {
+            etag.append("-gzip");
+        }
+
+        return etag.append('"').toString();
+    }
+
+    /**
+     * A page response: the items, and the cursor to pass as "after" for the next page, or null if none.
+     *
+     * @param items
+     * @param next
+     * @return
+     * @throws JsonProcessingException
+     */
+    private ResponseEntity<byte[]> pageResponse(Object items, String next) throws JsonProcessingException {
+        final Map<String, Object> body = new LinkedHashMap<>();
+        body.put("items", items);
+        body.put("next", next);
+
+        return ResponseEntity.ok()
+                .contentType(MediaType.APPLICATION_JSON_UTF8)
+                .body(objectMapper.writeValueAsBytes(body));
+    }
+
+    private static int pageSize(Integer limit) {
+        return Math.max(1, Math.min(Optional.ofNullable(limit).orElse(DEFAULT_PAGE_SIZE), MAX_PAGE_SIZE));
+    }
+
+    private static TableFilter tableFilter(Boolean assigned) {
+        if (assigned == null) {
+            return TableFilter.ALL;
+        }
+
+        if (assigned) {
+            return TableFilter.ASSIGNED;
+        }
+
+        return TableFilter.UNASSIGNED;
+    }
+
+    private static boolean acceptsGzip(WebRequest webRequest) {
+        return Optional.ofNullable(webRequest.getHeader(HttpHeaders.ACCEPT_ENCODING))
+                .map(RestaurantController::acceptsGzip)
+                .orElse(false);
+    }
+
+    /**
+     * Whether an Accept-Encoding header accepts gzip, by name or by "*", with a quality above 0.
+     * A coding named explicitly takes precedence over "*".
+     *
+     * @param acceptEncoding
+     * @return
+     */
+    static boolean acceptsGzip(String acceptEncoding) {
+        Double gzipQuality = null;
+        Double anyQuality = null;
+
+        for (final String element : acceptEncoding.split(",")) {
+            final String[] parameters = element.split(";");
+            final String coding = parameters[0].trim().toLowerCase(Locale.ROOT);
+            if (GZIP.equals(coding)) {
+                gzipQuality = quality(parameters);
+            } else if ("*".equals(coding)) {
+                anyQuality = quality(parameters);
+            }
+        }
+
+        if (gzipQuality != null) {
+            return gzipQuality > 0;
+        }
+
+        return (anyQuality != null) && (anyQuality > 0);
+    }
+
+    /**
+     * The quality of a coding.
+     *
+     * @param parameters the coding and its parameters
+     * @return 1 if not given, or 0 if not a number
+     */
+    private static double quality(String[] parameters) {
+        for (int i = 1; i < parameters.length; i++) {
+            final String[] nameAndValue = parameters[i].split("=", 2);
+            if ((nameAndValue.length == 2) && "q".equalsIgnoreCase(nameAndValue[0].trim())) {
+                try {
+                    return Double.parseDouble(nameAndValue[1].trim());
+                } catch (NumberFormatException e) {
+                    return 0;
+                }
+            }
+        }
+
+        return 1;
+    }
+
+    /**
+     * The serialized response, compressed if accepted.
+     *
+     * @param cachedResponse
+     * @param gzip
+     * @return
+     */
+    private static ResponseEntity<byte[]> response(ResponseCache.CachedResponse cachedResponse, boolean gzip) {
+        final ResponseEntity.BodyBuilder bodyBuilder = ResponseEntity.ok()
+                .contentType(MediaType.APPLICATION_JSON_UTF8)
+                .header(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+
+        if (gzip) {
+            return bodyBuilder.header(HttpHeaders.CONTENT_ENCODING, GZIP).body(cachedResponse.getGzip());
+        }
+
+        return bodyBuilder.body(cachedResponse.getJson());
+    }
+
+    /**
+     * Compact form of a waiter's tables: restaurant names to sorted table numbers, in name order.
+     *
+     * @param restaurantTables
+     * @return
+     */
+    private static Map<String, List<String>> tableNumbersByRestaurantName(
+            Map<Restaurant, Set<Table>> restaurantTables) {
+        final Map<String, List<String>> tableNumbers = new TreeMap<>();
+        for (final Map.Entry<Restaurant, Set<Table>> entry: restaurantTables.entrySet()) {
+            tableNumbers.put(entry.getKey().getName(),
+                    entry.getValue().stream().map(Table::getNumber).sorted().collect(Collectors.toList()));
+        }
+
+        return tableNumbers;
+    }
 }
@@ -0,0 +1,61 @@
+package com.mparaz.restaurant.web;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.mparaz.restaurant.Restaurant;
+import com.mparaz.restaurant.Table;
+import com.mparaz.restaurant.Waiter;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Writes the tables of all waiters as JSON straight to the response, in the same form as the cached response
+ * but in no particular order. Only the generator's buffer is allocated, however many assignments there are.
+ */
+class TablesJsonStreamer implements StreamingResponseBody {
+
+    private final JsonFactory jsonFactory;
+
+    /**
+     * The waiter views to write. Each waiter's view must not change while being written, though it may be
+     * replaced in the map by a later one.
+     */
+    private final Map<Waiter, Map<Restaurant, Set<Table>>> waiterRestaurantTables;
+
+    TablesJsonStreamer(JsonFactory jsonFactory, Map<Waiter, Map<Restaurant, Set<Table>>> waiterRestaurantTables) {
+        this.jsonFactory = jsonFactory;
+        this.waiterRestaurantTables = waiterRestaurantTables;
+    }
+
+    @Override
+    public void writeTo(OutputStream outputStream) throws IOException {
+        // The response stream is closed by the container.
+        try (JsonGenerator jsonGenerator = jsonFactory.createGenerator(outputStream)
+                .disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET)) {
+            jsonGenerator.writeStartObject();
+
+            for (final Map.Entry<Waiter, Map<Restaurant, Set<Table>>> waiterEntry
+                    : waiterRestaurantTables.entrySet()) {
+                jsonGenerator.writeObjectFieldStart(waiterEntry.getKey().getName());
+
+                for (final Map.Entry<Restaurant, Set<Table>> restaurantEntry : waiterEntry.getValue().entrySet()) {
+                    jsonGenerator.writeArrayFieldStart(restaurantEntry.getKey().getName());
+
+                    for (final Table table : restaurantEntry.getValue()) {
+                        jsonGenerator.writeString(table.getNumber());
+                    }
+
+                    jsonGenerator.writeEndArray();
+                }
+
+                jsonGenerator.writeEndObject();
+            }
+
+            jsonGenerator.writeEndObject();
+        }
+    }
+}
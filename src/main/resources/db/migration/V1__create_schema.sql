@@ -0,0 +1,25 @@
+-- The schema as first generated by Hibernate. Databases created before migrations are baselined at this version.
+
+create table restaurant (id bigint generated by default as identity, name varchar(255), primary key (id));
+create table restaurant_table (id bigint generated by default as identity, number varchar(255),
+    restaurant_id bigint, waiter_id bigint, primary key (id));
+create table restaurant_tables (restaurant_id bigint not null, tables_id bigint not null,
+    primary key (restaurant_id, tables_id));
+create table waiter (id bigint generated by default as identity, name varchar(255), primary key (id));
+create table waiter_tables (waiter_id bigint not null, tables_id bigint not null, primary key (waiter_id, tables_id));
+
+alter table restaurant add constraint UK_i6u3x7opncroyhd755ejknses unique (name);
+alter table restaurant_tables add constraint UK_gwm4gewu4b983be6x6xitgksr unique (tables_id);
+alter table waiter add constraint UK_f9sb0qa87s3qb7h0rvs7138g8 unique (name);
+alter table waiter_tables add constraint UK_m7fx1qtaw7v0wj4p55xmuyppr unique (tables_id);
+
+alter table restaurant_table add constraint FK3pdovxhxtwrb5kboju0qs21tn foreign key (restaurant_id)
+    references restaurant;
+alter table restaurant_table add constraint FKlfmd49gv88x3ofevq3nh3tuj1 foreign key (waiter_id) references waiter;
+alter table restaurant_tables add constraint FKqiy32u6f01iybv4uho3aq1yy7 foreign key (tables_id)
+    references restaurant_table;
+alter table restaurant_tables add constraint FK4t87cdvskng1p8mmjsnoie9vg foreign key (restaurant_id)
+    references restaurant;
+alter table waiter_tables add constraint FK73vs2g0icdy81gwdlisxo4y1x foreign key (tables_id)
+    references restaurant_table;
+alter table waiter_tables add constraint FK6n5i76255fq5wp78ap794g3qr foreign key (waiter_id) references waiter;
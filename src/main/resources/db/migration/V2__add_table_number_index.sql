@@ -0,0 +1,12 @@
+-- A table is looked up by its restaurant and number, which are unique together.
+-- The unique constraint's index serves the lookup, and also the restaurant foreign key as its leading column.
+-- H2 already indexes the other foreign keys, and the join tables are covered by their primary and unique keys.
+
+-- Nothing prevented duplicate numbers in a restaurant before, so a database may have them. Rather than fail or
+-- lose their assignments, every duplicate after the first is renamed to its number followed by '#' and its ID,
+-- so that it can be found and fixed by hand.
+update restaurant_table t set number = concat(t.number, '#', t.id)
+    where exists (select 1 from restaurant_table o
+        where o.restaurant_id = t.restaurant_id and o.number = t.number and o.id < t.id);
+
+alter table restaurant_table add constraint uk_restaurant_table_restaurant_number unique (restaurant_id, number);
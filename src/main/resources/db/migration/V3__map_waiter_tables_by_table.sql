@@ -0,0 +1,7 @@
+-- A table's waiter is now only in restaurant_table.waiter_id, which every assignment has set.
+-- Fill it from the separate waiter_tables join table for any table without it, then drop the join table.
+
+update restaurant_table t set waiter_id = (select wt.waiter_id from waiter_tables wt where wt.tables_id = t.id)
+    where t.waiter_id is null and exists (select 1 from waiter_tables wt where wt.tables_id = t.id);
+
+drop table waiter_tables;
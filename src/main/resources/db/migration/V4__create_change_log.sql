@@ -0,0 +1,5 @@
+-- Changes to tables, waiters and assignments, numbered in order, so that instances can follow each other.
+-- Entries are pruned once old enough that every instance has applied them.
+
+create table change_log (id bigint generated by default as identity, kind varchar(16) not null,
+    restaurant_name varchar(255), table_number varchar(255), waiter_name varchar(255), primary key (id));
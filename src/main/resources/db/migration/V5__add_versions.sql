@@ -0,0 +1,5 @@
+-- Versions for optimistic locking of tables and waiters. Existing rows start at 0.
+
+alter table restaurant_table add column version bigint default 0 not null;
+
+alter table waiter add column version bigint default 0 not null;
@@ -0,0 +1,30 @@
+package com.mparaz.restaurant;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Unit tests for the interned model objects.
+ */
+public class InternerTest {
+
+    @Test
+    public void shouldReturnSameObjectForEqualOnes() {
+        final Interner interner = new Interner();
+        final Table table = interner.table("Interned table", "Interned restaurant");
+
+        Assert.assertSame(table, interner.table("Interned table", "Interned restaurant"));
+        Assert.assertSame(table.getRestaurant(), interner.restaurant("Interned restaurant"));
+        Assert.assertSame(interner.waiter("Interned waiter"), interner.waiter("Interned waiter"));
+
+        // Another interner, as for another load, has its own objects, which are still equal.
+        final Table otherTable = new Interner().table("Interned table", "Interned restaurant");
+        Assert.assertNotSame(table, otherTable);
+        Assert.assertEquals(table, otherTable);
+
+        // Objects created elsewhere are still equal.
+        Assert.assertEquals(new Table("Interned table", new Restaurant("Interned restaurant")), table);
+        Assert.assertEquals(new Table("Interned table", new Restaurant("Interned restaurant")).hashCode(),
+                table.hashCode());
+    }
+}
@@ -0,0 +1,73 @@
+package com.mparaz.restaurant.service.impl;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+/**
+ * Unit tests for the entity ID cache.
+ */
+public class IdCacheTest {
+
+    @Test
+    public void shouldEvictAnotherWhenFull() {
+        final IdCache<String, Long> idCache = new IdCache<>(2);
+        idCache.putAfterCommit("a", 1L);
+        idCache.putAfterCommit("b", 2L);
+        idCache.putAfterCommit("a", 1L);
+        Assert.assertEquals(2, idCache.size());
+
+        // The new ID is kept, and one of the others evicted.
+        idCache.putAfterCommit("c", 0L);
+
+        Assert.assertEquals(2, idCache.size());
+        Assert.assertEquals(Long.valueOf(0L), idCache.get("c"));
+        Assert.assertTrue((idCache.get("a") == null) != (idCache.get("b") == null));
+    }
+
+    @Test
+    public void shouldSeedOnlyWhileThereIsRoom() {
+        final IdCache<String, Long> idCache = new IdCache<>(2);
+        idCache.seed("a", 1L);
+        idCache.seed("b", 2L);
+        idCache.seed("c", 0L);
+
+        Assert.assertEquals(2, idCache.size());
+        Assert.assertEquals(Long.valueOf(1L), idCache.get("a"));
+        Assert.assertNull(idCache.get("c"));
+
+        idCache.remove("a");
+        Assert.assertNull(idCache.get("a"));
+    }
+
+    @Test
+    public void shouldOnlyCacheAfterCommit() {
+        final IdCache<String, Long> idCache = new IdCache<>(2);
+
+        TransactionSynchronizationManager.initSynchronization();
+        try {
+            idCache.putAfterCommit("a", 1L);
+            Assert.assertNull(idCache.get("a"));
+
+            // Roll back.
+            for (final TransactionSynchronization synchronization
+                    : TransactionSynchronizationManager.getSynchronizations()) {
+                synchronization.afterCompletion(TransactionSynchronization.STATUS_ROLLED_BACK);
+            }
+            Assert.assertNull(idCache.get("a"));
+            TransactionSynchronizationManager.clearSynchronization();
+
+            TransactionSynchronizationManager.initSynchronization();
+            idCache.putAfterCommit("b", 2L);
+            Assert.assertNull(idCache.get("b"));
+            for (final TransactionSynchronization synchronization
+                    : TransactionSynchronizationManager.getSynchronizations()) {
+                synchronization.afterCommit();
+            }
+            Assert.assertEquals(Long.valueOf(2L), idCache.get("b"));
+        } finally {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+    }
+}
@@ -3,7 +3,6 @@ package com.mparaz.restaurant.service.impl;
 import com.mparaz.restaurant.Restaurant;
 import com.mparaz.restaurant.Table;
 import com.mparaz.restaurant.Waiter;
-import com.mparaz.restaurant.service.ManagementService;
 import com.mparaz.restaurant.service.PersistenceService;
 import org.hamcrest.Matchers;
 import org.junit.Assert;
@@ -30,8 +29,6 @@ public class ManagementServiceImplIntegrationTest {
 
     private PersistenceService persistenceService;
 
-    private ManagementService managementService;
-
     @Test
     public void shouldAssignWaiterToTableWithOnlyOneWaiter() {
         final Waiter waiter = new Waiter("Waiter 1");
@@ -43,32 +40,34 @@ public class ManagementServiceImplIntegrationTest {
         persistenceService.createTable(table);
         persistenceService.createWaiter(waiter);
 
-        Assert.assertThat(managementService.assignWaiter(waiter, table), Matchers.is(Collections.emptySet()));
+        // The application's service was loaded at startup, so load another one from the initial state.
+        final ManagementServiceImpl managementService = new ManagementServiceImpl(persistenceService);
+        managementService.load();
+        try {
+            Assert.assertThat(managementService.assignWaiter(waiter, table), Matchers.is(Collections.emptySet()));
 
-        // Check memory
+            // Check memory
 
-        final Map<Table, Optional<Waiter>> expectedTableWaiters = new HashMap<>();
-        expectedTableWaiters.put(table, Optional.of(waiter));
-        Assert.assertThat(managementService.displayAssignments(restaurant), Matchers.is(expectedTableWaiters));
+            final Map<Table, Optional<Waiter>> expectedTableWaiters = new HashMap<>();
+            expectedTableWaiters.put(table, Optional.of(waiter));
+            Assert.assertThat(managementService.displayAssignments(restaurant), Matchers.is(expectedTableWaiters));
 
-        final Map<Restaurant, Set<Table>> expectedRestaurantTables = new HashMap<>();
-        expectedRestaurantTables.put(restaurant, Collections.singleton(table));
+            final Map<Restaurant, Set<Table>> expectedRestaurantTables = new HashMap<>();
+            expectedRestaurantTables.put(restaurant, Collections.singleton(table));
 
-        Assert.assertThat(managementService.displayTables(waiter), Matchers.is(expectedRestaurantTables));
+            Assert.assertThat(managementService.displayTables(waiter), Matchers.is(expectedRestaurantTables));
 
-        // Check persistence
-        final Map<Waiter, Set<Table>> waiterTableAssignments = persistenceService.loadWaiterTableAssignments();
+            // Check persistence
+            final Map<Waiter, Set<Table>> waiterTableAssignments = persistenceService.loadWaiterTableAssignments();
 
-        Assert.assertThat(waiterTableAssignments.get(waiter), Matchers.is(Collections.singleton(table)));
+            Assert.assertThat(waiterTableAssignments.get(waiter), Matchers.is(Collections.singleton(table)));
+        } finally {
+            managementService.close();
+        }
     }
 
     @Autowired
     public void setPersistenceService(PersistenceService persistenceService) {
         this.persistenceService = persistenceService;
     }
-
-    @Autowired
-    public void setManagementService(ManagementService managementService) {
-        this.managementService = managementService;
-    }
 }
@@ -3,25 +3,71 @@ package com.mparaz.restaurant.service.impl;
 import com.mparaz.restaurant.Restaurant;
 import com.mparaz.restaurant.Table;
 import com.mparaz.restaurant.Waiter;
+import com.mparaz.restaurant.service.AssignmentResult;
+import com.mparaz.restaurant.service.ChangeLogEntry;
+import com.mparaz.restaurant.service.NotReadyException;
+import com.mparaz.restaurant.service.Page;
+import com.mparaz.restaurant.service.PersistedState;
 import com.mparaz.restaurant.service.PersistenceService;
+import com.mparaz.restaurant.service.Readiness;
+import com.mparaz.restaurant.service.TableFilter;
 import org.hamcrest.Matchers;
+import org.junit.After;
 import org.junit.Assert;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 import org.mockito.Mockito;
+import org.springframework.dao.OptimisticLockingFailureException;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
 
 /**
  * Unit tests for Management Service.
  */
 public class ManagementServiceImplTest {
 
+    private static final int MAX_TABLES_PER_RESTAURANT = 4;
+
+    private static final int THREADS = 16;
+
+    private static final int MAX_ASSIGNMENT_ATTEMPTS = 4;
+
+    private static final long PRUNE_INTERVAL_MILLIS = 10;
+
+    /**
+     * How long to wait for a background job that should, or should not, run.
+     */
+    private static final int BACKGROUND_WAIT_MILLIS = 1000;
+
+    @Rule
+    public final TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    /**
+     * Services created by the tests, closed after each so that their background threads stop.
+     */
+    private final List<ManagementServiceImpl> managementServices = new ArrayList<>();
+
+    @After
+    public void tearDown() {
+        managementServices.forEach(ManagementServiceImpl::close);
+    }
+
     @Test
     public void shouldHaveNoAssignments() {
 
@@ -36,11 +82,13 @@ public class ManagementServiceImplTest {
 
         final PersistenceService persistenceService = Mockito.mock(PersistenceService.class);
 
-        Mockito.when(persistenceService.loadTables()).thenReturn(Collections.singleton(table));
-        Mockito.when(persistenceService.loadWaiters()).thenReturn(Collections.singleton(waiter));
-        Mockito.when(persistenceService.loadWaiterTableAssignments()).thenReturn(new HashMap<>());
+        Mockito.when(persistenceService.loadAll()).thenReturn(new PersistedState(
+                Collections.singleton(table),
+                Collections.singleton(waiter),
+                new HashMap<>()));
 
-        final ManagementServiceImpl managementService = new ManagementServiceImpl(persistenceService);
+        final ManagementServiceImpl managementService = created(new ManagementServiceImpl(persistenceService));
+        managementService.load();
 
         // Do not assign.
 
@@ -63,11 +111,13 @@ public class ManagementServiceImplTest {
 
         final PersistenceService persistenceService = Mockito.mock(PersistenceService.class);
 
-        Mockito.when(persistenceService.loadTables()).thenReturn(Collections.singleton(table));
-        Mockito.when(persistenceService.loadWaiters()).thenReturn(Collections.singleton(waiter));
-        Mockito.when(persistenceService.loadWaiterTableAssignments()).thenReturn(new HashMap<>());
+        Mockito.when(persistenceService.loadAll()).thenReturn(new PersistedState(
+                Collections.singleton(table),
+                Collections.singleton(waiter),
+                new HashMap<>()));
 
-        final ManagementServiceImpl managementService = new ManagementServiceImpl(persistenceService);
+        final ManagementServiceImpl managementService = created(new ManagementServiceImpl(persistenceService));
+        managementService.load();
 
         Assert.assertThat(managementService.assignWaiter(waiter, table), Matchers.is(Collections.emptySet()));
 
@@ -96,11 +146,13 @@ public class ManagementServiceImplTest {
 
         final PersistenceService persistenceService = Mockito.mock(PersistenceService.class);
 
-        Mockito.when(persistenceService.loadTables()).thenReturn(new HashSet<>(Arrays.asList(table1, table2)));
-        Mockito.when(persistenceService.loadWaiters()).thenReturn(new HashSet<>(Arrays.asList(waiter1, waiter2)));
-        Mockito.when(persistenceService.loadWaiterTableAssignments()).thenReturn(new HashMap<>());
+        Mockito.when(persistenceService.loadAll()).thenReturn(new PersistedState(
+                new HashSet<>(Arrays.asList(table1, table2)),
+                new HashSet<>(Arrays.asList(waiter1, waiter2)),
+                new HashMap<>()));
 
-        final ManagementServiceImpl managementService = new ManagementServiceImpl(persistenceService);
+        final ManagementServiceImpl managementService = created(new ManagementServiceImpl(persistenceService));
+        managementService.load();
 
 
         Assert.assertThat(managementService.assignWaiter(waiter1, table1), Matchers.is(Collections.emptySet()));
@@ -133,11 +185,13 @@ public class ManagementServiceImplTest {
 
         final PersistenceService persistenceService = Mockito.mock(PersistenceService.class);
 
-        Mockito.when(persistenceService.loadTables()).thenReturn(new HashSet<>(Arrays.asList(table1, table2)));
-        Mockito.when(persistenceService.loadWaiters()).thenReturn(new HashSet<>(Arrays.asList(waiter1, waiter2)));
-        Mockito.when(persistenceService.loadWaiterTableAssignments()).thenReturn(new HashMap<>());
+        Mockito.when(persistenceService.loadAll()).thenReturn(new PersistedState(
+                new HashSet<>(Arrays.asList(table1, table2)),
+                new HashSet<>(Arrays.asList(waiter1, waiter2)),
+                new HashMap<>()));
 
-        final ManagementServiceImpl managementService = new ManagementServiceImpl(persistenceService);
+        final ManagementServiceImpl managementService = created(new ManagementServiceImpl(persistenceService));
+        managementService.load();
 
         Assert.assertThat(managementService.assignWaiter(waiter1, table1), Matchers.is(Collections.emptySet()));
 
@@ -177,14 +231,16 @@ public class ManagementServiceImplTest {
 
         final PersistenceService persistenceService = Mockito.mock(PersistenceService.class);
 
-        Mockito.when(persistenceService.loadTables()).thenReturn(new HashSet<>(Arrays.asList(table1, table2)));
-        Mockito.when(persistenceService.loadWaiters()).thenReturn(new HashSet<>(Arrays.asList(waiter1, waiter2)));
-        Mockito.when(persistenceService.loadWaiterTableAssignments()).thenReturn(new HashMap<>());
+        Mockito.when(persistenceService.loadAll()).thenReturn(new PersistedState(
+                new HashSet<>(Arrays.asList(table1, table2)),
+                new HashSet<>(Arrays.asList(waiter1, waiter2)),
+                new HashMap<>()));
 
         Mockito.when(table1.getRestaurant()).thenReturn(restaurant);
         Mockito.when(table2.getRestaurant()).thenReturn(restaurant);
 
-        final ManagementServiceImpl managementService = new ManagementServiceImpl(persistenceService);
+        final ManagementServiceImpl managementService = created(new ManagementServiceImpl(persistenceService));
+        managementService.load();
 
         Assert.assertThat(managementService.assignWaiter(waiter1, table1), Matchers.is(Collections.emptySet()));
         Assert.assertThat(managementService.assignWaiter(waiter2, table2), Matchers.is(Collections.emptySet()));
@@ -224,12 +280,13 @@ public class ManagementServiceImplTest {
 
         final PersistenceService persistenceService = Mockito.mock(PersistenceService.class);
 
-        Mockito.when(persistenceService.loadTables()).thenReturn(new HashSet<>(Arrays.asList(table1, table2, table3,
-                table4, table5)));
-        Mockito.when(persistenceService.loadWaiters()).thenReturn(new HashSet<>(Arrays.asList(waiter1, waiter2)));
-        Mockito.when(persistenceService.loadWaiterTableAssignments()).thenReturn(new HashMap<>());
+        Mockito.when(persistenceService.loadAll()).thenReturn(new PersistedState(
+                new HashSet<>(Arrays.asList(table1, table2, table3, table4, table5)),
+                new HashSet<>(Arrays.asList(waiter1, waiter2)),
+                new HashMap<>()));
 
-        final ManagementServiceImpl managementService = new ManagementServiceImpl(persistenceService);
+        final ManagementServiceImpl managementService = created(new ManagementServiceImpl(persistenceService));
+        managementService.load();
 
         // Assign 4 tables to waiter1, and then don't assign the 5th but suggest waiter2
         Assert.assertThat(managementService.assignWaiter(waiter1, table1), Matchers.is(Collections.emptySet()));
@@ -278,12 +335,13 @@ public class ManagementServiceImplTest {
 
         final PersistenceService persistenceService = Mockito.mock(PersistenceService.class);
 
-        Mockito.when(persistenceService.loadTables()).thenReturn(new HashSet<>(Arrays.asList(table1, table2, table3,
-                table4, table5)));
-        Mockito.when(persistenceService.loadWaiters()).thenReturn(new HashSet<>(Arrays.asList(waiter1, waiter2)));
-        Mockito.when(persistenceService.loadWaiterTableAssignments()).thenReturn(new HashMap<>());
+        Mockito.when(persistenceService.loadAll()).thenReturn(new PersistedState(
+                new HashSet<>(Arrays.asList(table1, table2, table3, table4, table5)),
+                new HashSet<>(Arrays.asList(waiter1, waiter2)),
+                new HashMap<>()));
 
-        final ManagementServiceImpl managementService = new ManagementServiceImpl(persistenceService);
+        final ManagementServiceImpl managementService = created(new ManagementServiceImpl(persistenceService));
+        managementService.load();
 
         // Assign 4 tables to waiter1 in restaurant1, and then another in restaurant2
         Assert.assertThat(managementService.assignWaiter(waiter1, table1), Matchers.is(Collections.emptySet()));
@@ -331,12 +389,13 @@ public class ManagementServiceImplTest {
 
         final PersistenceService persistenceService = Mockito.mock(PersistenceService.class);
 
-        Mockito.when(persistenceService.loadTables()).thenReturn(new HashSet<>(Arrays.asList(table1, table2, table3,
-                table4, table5)));
-        Mockito.when(persistenceService.loadWaiters()).thenReturn(new HashSet<>(Collections.singletonList(waiter1)));
-        Mockito.when(persistenceService.loadWaiterTableAssignments()).thenReturn(new HashMap<>());
+        Mockito.when(persistenceService.loadAll()).thenReturn(new PersistedState(
+                new HashSet<>(Arrays.asList(table1, table2, table3, table4, table5)),
+                new HashSet<>(Collections.singletonList(waiter1)),
+                new HashMap<>()));
 
-        final ManagementServiceImpl managementService = new ManagementServiceImpl(persistenceService);
+        final ManagementServiceImpl managementService = created(new ManagementServiceImpl(persistenceService));
+        managementService.load();
 
         // Assign 4 tables to waiter1, and then don't assign the 5th but no suggestions.
         Assert.assertThat(managementService.assignWaiter(waiter1, table1), Matchers.is(Collections.emptySet()));
@@ -358,4 +417,898 @@ public class ManagementServiceImplTest {
 
         Assert.assertThat(managementService.displayTables(waiter1), Matchers.is(expectedRestaurantTables1));
     }
+
+    @Test
+    public void shouldAssignFifthTableAfterReplacingOneOfFour() {
+
+        final Waiter waiter1 = Mockito.mock(Waiter.class);
+        final Waiter waiter2 = Mockito.mock(Waiter.class);
+        final Restaurant restaurant = Mockito.mock(Restaurant.class);
+
+        final Table table1 = Mockito.mock(Table.class);
+        final Table table2 = Mockito.mock(Table.class);
+        final Table table3 = Mockito.mock(Table.class);
+        final Table table4 = Mockito.mock(Table.class);
+        final Table table5 = Mockito.mock(Table.class);
+
+        Mockito.when(table1.getRestaurant()).thenReturn(restaurant);
+        Mockito.when(table2.getRestaurant()).thenReturn(restaurant);
+        Mockito.when(table3.getRestaurant()).thenReturn(restaurant);
+        Mockito.when(table4.getRestaurant()).thenReturn(restaurant);
+        Mockito.when(table5.getRestaurant()).thenReturn(restaurant);
+
+        final PersistenceService persistenceService = Mockito.mock(PersistenceService.class);
+
+        Mockito.when(persistenceService.loadAll()).thenReturn(new PersistedState(
+                new HashSet<>(Arrays.asList(table1, table2, table3, table4, table5)),
+                new HashSet<>(Arrays.asList(waiter1, waiter2)),
+                new HashMap<>()));
+
+        final ManagementServiceImpl managementService = created(new ManagementServiceImpl(persistenceService));
+        managementService.load();
+
+        // Assign 4 tables to waiter1, then give one of them to waiter2, which leaves room for the 5th.
+        Assert.assertThat(managementService.assignWaiter(waiter1, table1), Matchers.is(Collections.emptySet()));
+        Assert.assertThat(managementService.assignWaiter(waiter1, table2), Matchers.is(Collections.emptySet()));
+        Assert.assertThat(managementService.assignWaiter(waiter1, table3), Matchers.is(Collections.emptySet()));
+        Assert.assertThat(managementService.assignWaiter(waiter1, table4), Matchers.is(Collections.emptySet()));
+        Assert.assertThat(managementService.assignWaiter(waiter1, table4), Matchers.is(Collections.singleton(waiter2)));
+        Assert.assertThat(managementService.assignWaiter(waiter2, table4), Matchers.is(Collections.emptySet()));
+        Assert.assertThat(managementService.assignWaiter(waiter1, table5), Matchers.is(Collections.emptySet()));
+
+        final Map<Restaurant, Set<Table>> expectedRestaurantTables1 = new HashMap<>();
+        expectedRestaurantTables1.put(restaurant, new HashSet<>(Arrays.asList(table1, table2, table3, table5)));
+        final Map<Restaurant, Set<Table>> expectedRestaurantTables2 = new HashMap<>();
+        expectedRestaurantTables2.put(restaurant, Collections.singleton(table4));
+
+        Assert.assertThat(managementService.displayTables(waiter1), Matchers.is(expectedRestaurantTables1));
+        Assert.assertThat(managementService.displayTables(waiter2), Matchers.is(expectedRestaurantTables2));
+    }
+
+    @Test
+    public void shouldAssignAndDisplayByName() {
+
+        // Real objects, since the lookups are by name.
+
+        final Waiter waiter = new Waiter("Waiter1");
+        final Restaurant restaurant1 = new Restaurant("Restaurant1");
+        final Restaurant restaurant2 = new Restaurant("Restaurant2");
+
+        final Table table1 = new Table("Table1", restaurant1);
+        final Table table2 = new Table("Table1", restaurant2);
+
+        final PersistenceService persistenceService = Mockito.mock(PersistenceService.class);
+
+        Mockito.when(persistenceService.loadAll()).thenReturn(new PersistedState(
+                new HashSet<>(Arrays.asList(table1, table2)),
+                Collections.singleton(waiter),
+                new HashMap<>()));
+
+        final ManagementServiceImpl managementService = created(new ManagementServiceImpl(persistenceService));
+        managementService.load();
+
+        Assert.assertThat(managementService.assignWaiter("Waiter1", "Restaurant2", "Table1"),
+                Matchers.is(Collections.emptySet()));
+
+        // Unknown names are ignored.
+        Assert.assertThat(managementService.assignWaiter("Waiter2", "Restaurant1", "Table1"),
+                Matchers.is(Collections.emptySet()));
+        Assert.assertThat(managementService.assignWaiter("Waiter1", "Restaurant3", "Table1"),
+                Matchers.is(Collections.emptySet()));
+        Assert.assertThat(managementService.assignWaiter("Waiter1", "Restaurant1", "Table2"),
+                Matchers.is(Collections.emptySet()));
+
+        final Map<Table, Optional<Waiter>> expectedTableWaiters = new HashMap<>();
+        expectedTableWaiters.put(table2, Optional.of(waiter));
+        Assert.assertThat(managementService.displayAssignments("Restaurant2"), Matchers.is(expectedTableWaiters));
+        Assert.assertThat(managementService.displayAssignments("Restaurant3"), Matchers.is(Collections.emptyMap()));
+
+        final Map<Restaurant, Set<Table>> expectedRestaurantTables = new HashMap<>();
+        expectedRestaurantTables.put(restaurant2, Collections.singleton(table2));
+        Assert.assertThat(managementService.displayTables("Waiter1"), Matchers.is(expectedRestaurantTables));
+        Assert.assertThat(managementService.displayTables("Waiter2"), Matchers.is(Collections.emptyMap()));
+
+        Mockito.verify(persistenceService).assign(table2, waiter);
+        Mockito.verify(persistenceService, Mockito.never()).assign(table1, waiter);
+    }
+
+    @Test
+    public void shouldNotAssignMoreThanFourTablesInTheSameRestaurantConcurrently() throws Exception {
+
+        // Real objects, since the assignments come from many threads.
+
+        final Waiter waiter = new Waiter("Waiter1");
+        final Restaurant restaurant = new Restaurant("Restaurant1");
+
+        final Set<Table> tables = new HashSet<>();
+        for (int i = 1; i <= THREADS; i++) {
+            tables.add(new Table("Table" + i, restaurant));
+        }
+
+        final PersistenceService persistenceService = Mockito.mock(PersistenceService.class);
+
+        Mockito.when(persistenceService.loadAll()).thenReturn(new PersistedState(
+                tables,
+                Collections.singleton(waiter),
+                new HashMap<>()));
+
+        final ManagementServiceImpl managementService = created(new ManagementServiceImpl(persistenceService));
+        managementService.load();
+
+        // Start all assignments at once, to the same waiter in the same restaurant.
+        final ExecutorService executorService = Executors.newFixedThreadPool(THREADS);
+        final CountDownLatch startLatch = new CountDownLatch(1);
+        final List<Future<Set<Waiter>>> futures = new ArrayList<>();
+        for (final Table table: tables) {
+            futures.add(executorService.submit(() -> {
+                startLatch.await();
+                return managementService.assignWaiter(waiter, table);
+            }));
+        }
+
+        startLatch.countDown();
+        for (final Future<Set<Waiter>> future: futures) {
+            future.get();
+        }
+
+        executorService.shutdown();
+
+        // Only the maximum may succeed.
+        Assert.assertThat(managementService.displayTables(waiter).get(restaurant).size(),
+                Matchers.is(MAX_TABLES_PER_RESTAURANT));
+        Mockito.verify(persistenceService, Mockito.times(MAX_TABLES_PER_RESTAURANT))
+                .assign(Mockito.any(Table.class), Mockito.eq(waiter));
+    }
+
+    @Test
+    public void shouldSwapTablesBetweenFullWaitersInOneBatch() {
+
+        final Waiter waiter1 = Mockito.mock(Waiter.class);
+        final Waiter waiter2 = Mockito.mock(Waiter.class);
+        final Restaurant restaurant = Mockito.mock(Restaurant.class);
+
+        final List<Table> tables = new ArrayList<>();
+        for (int i = 0; i < 2 * MAX_TABLES_PER_RESTAURANT; i++) {
+            final Table table = Mockito.mock(Table.class);
+            Mockito.when(table.getRestaurant()).thenReturn(restaurant);
+            tables.add(table);
+        }
+
+        // Both waiters start with the maximum number of tables.
+        final Map<Waiter, Set<Table>> waiterTableAssignments = new HashMap<>();
+        waiterTableAssignments.put(waiter1, new HashSet<>(tables.subList(0, MAX_TABLES_PER_RESTAURANT)));
+        waiterTableAssignments.put(waiter2, new HashSet<>(tables.subList(MAX_TABLES_PER_RESTAURANT, tables.size())));
+
+        final PersistenceService persistenceService = Mockito.mock(PersistenceService.class);
+
+        Mockito.when(persistenceService.loadAll()).thenReturn(new PersistedState(
+                new HashSet<>(tables),
+                new HashSet<>(Arrays.asList(waiter1, waiter2)),
+                waiterTableAssignments));
+
+        final ManagementServiceImpl managementService = created(new ManagementServiceImpl(persistenceService));
+        managementService.load();
+
+        // One by one, either assignment would be rejected. Together, the counts are unchanged.
+        final Table table1 = tables.get(0);
+        final Table table2 = tables.get(MAX_TABLES_PER_RESTAURANT);
+
+        final Map<Table, Waiter> tableWaiters = new LinkedHashMap<>();
+        tableWaiters.put(table1, waiter2);
+        tableWaiters.put(table2, waiter1);
+
+        final List<AssignmentResult> results = managementService.assignWaiters(tableWaiters);
+
+        Assert.assertThat(results.stream().map(AssignmentResult::getStatus).collect(Collectors.toList()),
+                Matchers.contains(AssignmentResult.Status.ASSIGNED, AssignmentResult.Status.ASSIGNED));
+
+        Assert.assertThat(managementService.displayAssignments(restaurant).get(table1),
+                Matchers.is(Optional.of(waiter2)));
+        Assert.assertThat(managementService.displayAssignments(restaurant).get(table2),
+                Matchers.is(Optional.of(waiter1)));
+
+        // Persisted together.
+        Mockito.verify(persistenceService).assignAll(tableWaiters);
+        Mockito.verify(persistenceService, Mockito.never()).assign(Mockito.any(Table.class), Mockito.any(Waiter.class));
+    }
+
+    @Test
+    public void shouldRejectBatchForOneRestaurantAndApplyTheOther() {
+
+        final Waiter waiter1 = Mockito.mock(Waiter.class);
+        final Waiter waiter2 = Mockito.mock(Waiter.class);
+
+        final Restaurant restaurant1 = Mockito.mock(Restaurant.class);
+        final Restaurant restaurant2 = Mockito.mock(Restaurant.class);
+
+        final List<Table> tables1 = new ArrayList<>();
+        for (int i = 0; i <= MAX_TABLES_PER_RESTAURANT; i++) {
+            final Table table = Mockito.mock(Table.class);
+            Mockito.when(table.getRestaurant()).thenReturn(restaurant1);
+            tables1.add(table);
+        }
+
+        final Table otherTable1 = Mockito.mock(Table.class);
+        Mockito.when(otherTable1.getRestaurant()).thenReturn(restaurant1);
+
+        final Table table2 = Mockito.mock(Table.class);
+        Mockito.when(table2.getRestaurant()).thenReturn(restaurant2);
+
+        final Set<Table> tables = new HashSet<>(tables1);
+        tables.add(otherTable1);
+        tables.add(table2);
+
+        final PersistenceService persistenceService = Mockito.mock(PersistenceService.class);
+
+        Mockito.when(persistenceService.loadAll()).thenReturn(new PersistedState(
+                tables,
+                new HashSet<>(Arrays.asList(waiter1, waiter2)),
+                new HashMap<>()));
+
+        final ManagementServiceImpl managementService = created(new ManagementServiceImpl(persistenceService));
+        managementService.load();
+
+        // waiter1 would have one table too many in restaurant1, so none of restaurant1 is applied.
+        final Map<Table, Waiter> tableWaiters = new LinkedHashMap<>();
+        tableWaiters.put(table2, waiter1);
+        tableWaiters.put(otherTable1, waiter2);
+        for (final Table table: tables1) {
+            tableWaiters.put(table, waiter1);
+        }
+
+        final List<AssignmentResult> results = managementService.assignWaiters(tableWaiters);
+
+        Assert.assertThat(results.get(0).getStatus(), Matchers.is(AssignmentResult.Status.ASSIGNED));
+        Assert.assertThat(results.get(1).getStatus(), Matchers.is(AssignmentResult.Status.NOT_APPLIED));
+
+        for (final AssignmentResult result: results.subList(2, results.size())) {
+            Assert.assertThat(result.getStatus(), Matchers.is(AssignmentResult.Status.REJECTED));
+            Assert.assertThat(result.getSuggestions(), Matchers.is(Collections.singleton(waiter2)));
+        }
+
+        Assert.assertThat(managementService.displayTables(waiter1),
+                Matchers.is(Collections.singletonMap(restaurant2, Collections.singleton(table2))));
+        Assert.assertThat(managementService.displayTables(waiter2), Matchers.is(Collections.emptyMap()));
+
+        Mockito.verify(persistenceService).assignAll(Collections.singletonMap(table2, waiter1));
+    }
+
+    @Test
+    public void shouldPublishNewWaiterViewOnReassignment() {
+
+        final Waiter waiter1 = Mockito.mock(Waiter.class);
+        final Waiter waiter2 = Mockito.mock(Waiter.class);
+        final Restaurant restaurant = Mockito.mock(Restaurant.class);
+
+        final Table table = Mockito.mock(Table.class);
+
+        Mockito.when(table.getRestaurant()).thenReturn(restaurant);
+
+        final PersistenceService persistenceService = Mockito.mock(PersistenceService.class);
+
+        Mockito.when(persistenceService.loadAll()).thenReturn(new PersistedState(
+                Collections.singleton(table),
+                new HashSet<>(Arrays.asList(waiter1, waiter2)),
+                Collections.singletonMap(waiter1, Collections.singleton(table))));
+
+        final ManagementServiceImpl managementService = created(new ManagementServiceImpl(persistenceService));
+        managementService.load();
+
+        final Map<Restaurant, Set<Table>> before = managementService.displayTables(waiter1);
+
+        Assert.assertThat(managementService.assignWaiter(waiter2, table), Matchers.is(Collections.emptySet()));
+
+        final Map<Waiter, Map<Restaurant, Set<Table>>> after = managementService.displayTables();
+
+        // The earlier view is unchanged.
+        Assert.assertThat(before, Matchers.is(Collections.singletonMap(restaurant, Collections.singleton(table))));
+
+        final Map<Waiter, Map<Restaurant, Set<Table>>> expected = new HashMap<>();
+        expected.put(waiter1, Collections.emptyMap());
+        expected.put(waiter2, Collections.singletonMap(restaurant, Collections.singleton(table)));
+        Assert.assertThat(after, Matchers.is(expected));
+
+        Assert.assertThat(managementService.displayTables(waiter2), Matchers.sameInstance(after.get(waiter2)));
+    }
+
+    @Test
+    public void shouldIncreaseVersionsOnlyOnChange() {
+
+        // Real objects, since the lookups are by name.
+
+        final Waiter waiter1 = new Waiter("Waiter1");
+        final Waiter waiter2 = new Waiter("Waiter2");
+        final Restaurant restaurant1 = new Restaurant("Restaurant1");
+        final Restaurant restaurant2 = new Restaurant("Restaurant2");
+
+        final Table table1 = new Table("Table1", restaurant1);
+        final Table table2 = new Table("Table1", restaurant2);
+
+        final PersistenceService persistenceService = Mockito.mock(PersistenceService.class);
+
+        Mockito.when(persistenceService.loadAll()).thenReturn(new PersistedState(
+                new HashSet<>(Arrays.asList(table1, table2)),
+                new HashSet<>(Arrays.asList(waiter1, waiter2)),
+                new HashMap<>()));
+
+        final ManagementServiceImpl managementService = created(new ManagementServiceImpl(persistenceService));
+        managementService.load();
+
+        Assert.assertThat(managementService.version(), Matchers.is(0L));
+
+        managementService.assignWaiter(waiter1, table1);
+
+        Assert.assertThat(managementService.version(), Matchers.is(1L));
+        Assert.assertThat(managementService.restaurantVersion("Restaurant1"), Matchers.is(1L));
+        Assert.assertThat(managementService.restaurantVersion("Restaurant2"), Matchers.is(0L));
+        Assert.assertThat(managementService.waiterVersion("Waiter1"), Matchers.is(1L));
+        Assert.assertThat(managementService.waiterVersion("Waiter2"), Matchers.is(0L));
+
+        // Reassigning to the same waiter changes nothing.
+        managementService.assignWaiter(waiter1, table1);
+
+        Assert.assertThat(managementService.version(), Matchers.is(1L));
+        Assert.assertThat(managementService.restaurantVersion("Restaurant1"), Matchers.is(1L));
+
+        // Both the previous and the new waiter change.
+        managementService.assignWaiter(waiter2, table1);
+
+        Assert.assertThat(managementService.version(), Matchers.is(2L));
+        Assert.assertThat(managementService.restaurantVersion("Restaurant1"), Matchers.is(2L));
+        Assert.assertThat(managementService.waiterVersion("Waiter1"), Matchers.is(2L));
+        Assert.assertThat(managementService.waiterVersion("Waiter2"), Matchers.is(1L));
+
+        Assert.assertThat(managementService.restaurantVersion("Restaurant3"), Matchers.is(0L));
+        Assert.assertThat(managementService.waiterVersion("Waiter3"), Matchers.is(0L));
+    }
+
+    @Test
+    public void shouldDisplayPagesInNameOrder() {
+
+        // Real objects, since pages are in name order.
+
+        final Waiter waiter1 = new Waiter("Waiter1");
+        final Waiter waiter2 = new Waiter("Waiter2");
+        final Waiter waiter3 = new Waiter("Waiter3");
+        final Restaurant restaurant1 = new Restaurant("Restaurant1");
+        final Restaurant restaurant2 = new Restaurant("Restaurant2");
+
+        final Table table1 = new Table("Table1", restaurant1);
+        final Table table2 = new Table("Table2", restaurant1);
+        final Table table3 = new Table("Table3", restaurant1);
+        final Table table4 = new Table("Table4", restaurant1);
+        final Table otherTable = new Table("Table1", restaurant2);
+
+        final PersistenceService persistenceService = Mockito.mock(PersistenceService.class);
+
+        // Initially, waiter2 has table2.
+        Mockito.when(persistenceService.loadAll()).thenReturn(new PersistedState(
+                new HashSet<>(Arrays.asList(table1, table2, table3, table4, otherTable)),
+                new HashSet<>(Arrays.asList(waiter1, waiter2, waiter3)),
+                Collections.singletonMap(waiter2, Collections.singleton(table2))));
+
+        final ManagementServiceImpl managementService = created(new ManagementServiceImpl(persistenceService));
+        managementService.load();
+
+        managementService.assignWaiter(waiter3, table4);
+        managementService.assignWaiter(waiter1, otherTable);
+
+        // All tables, two at a time.
+        final Page<Map.Entry<Table, Optional<Waiter>>> firstPage =
+                managementService.displayAssignments("Restaurant1", TableFilter.ALL, null, 2);
+        Assert.assertThat(firstPage.getItems().stream().map(Map.Entry::getKey).collect(Collectors.toList()),
+                Matchers.contains(table1, table2));
+        Assert.assertThat(firstPage.getItems().get(1).getValue(), Matchers.is(Optional.of(waiter2)));
+        Assert.assertThat(firstPage.getNext(), Matchers.is("Table2"));
+
+        final Page<Map.Entry<Table, Optional<Waiter>>> secondPage =
+                managementService.displayAssignments("Restaurant1", TableFilter.ALL, firstPage.getNext(), 2);
+        Assert.assertThat(secondPage.getItems().stream().map(Map.Entry::getKey).collect(Collectors.toList()),
+                Matchers.contains(table3, table4));
+        Assert.assertThat(secondPage.getNext(), Matchers.nullValue());
+
+        // Filtered.
+        Assert.assertThat(managementService.displayAssignments("Restaurant1", TableFilter.ASSIGNED, "Table2", 2)
+                .getItems().stream().map(Map.Entry::getKey).collect(Collectors.toList()),
+                Matchers.contains(table4));
+        Assert.assertThat(managementService.displayAssignments("Restaurant1", TableFilter.UNASSIGNED, null, 2)
+                .getItems().stream().map(Map.Entry::getKey).collect(Collectors.toList()),
+                Matchers.contains(table1, table3));
+
+        // Waiters, all and by restaurant.
+        final Page<Map.Entry<Waiter, Map<Restaurant, Set<Table>>>> waitersPage =
+                managementService.displayTables(null, "Waiter1", 1);
+        Assert.assertThat(waitersPage.getItems().get(0).getKey(), Matchers.is(waiter2));
+        Assert.assertThat(waitersPage.getNext(), Matchers.is("Waiter2"));
+
+        final Page<Map.Entry<Waiter, Map<Restaurant, Set<Table>>>> restaurantWaitersPage =
+                managementService.displayTables("Restaurant1", null, 2);
+        Assert.assertThat(restaurantWaitersPage.getItems().stream().map(Map.Entry::getKey)
+                        .collect(Collectors.toList()), Matchers.contains(waiter2, waiter3));
+        Assert.assertThat(restaurantWaitersPage.getItems().get(1).getValue(),
+                Matchers.is(Collections.singletonMap(restaurant1, Collections.singleton(table4))));
+        Assert.assertThat(restaurantWaitersPage.getNext(), Matchers.nullValue());
+
+        // Moving waiter2's only table in restaurant1 to waiter1 changes who is in restaurant1.
+        managementService.assignWaiter(waiter1, table2);
+        Assert.assertThat(managementService.displayTables("Restaurant1", null, 2).getItems().stream()
+                .map(Map.Entry::getKey).collect(Collectors.toList()), Matchers.contains(waiter1, waiter3));
+
+        Assert.assertThat(managementService.displayTables("Restaurant3", null, 2).getItems(), Matchers.empty());
+    }
+
+    @Test
+    public void shouldApplyChangesFromChangeLog() {
+
+        // Real objects, since changes are resolved by name.
+
+        final Waiter waiter1 = new Waiter("Waiter1");
+        final Restaurant restaurant = new Restaurant("Restaurant1");
+        final Table table1 = new Table("Table1", restaurant);
+
+        final PersistenceService persistenceService = Mockito.mock(PersistenceService.class);
+
+        Mockito.when(persistenceService.loadAll()).thenReturn(new PersistedState(
+                Collections.singleton(table1),
+                Collections.singleton(waiter1),
+                Collections.singletonMap(waiter1, Collections.emptySet())));
+
+        final ManagementServiceImpl managementService = created(new ManagementServiceImpl(persistenceService));
+        managementService.load();
+        Assert.assertThat(managementService.version(), Matchers.is(0L));
+
+        // Another instance adds a table and a waiter, and assigns both tables. Changes have their own objects.
+        final Table table2 = new Table("Table2", new Restaurant("Restaurant1"));
+        final Waiter waiter2 = new Waiter("Waiter2");
+        final List<ChangeLogEntry> changes = new ArrayList<>();
+        changes.add(new ChangeLogEntry(changes.size() + 1, ChangeLogEntry.Kind.TABLE, table2, null));
+        changes.add(new ChangeLogEntry(changes.size() + 1, ChangeLogEntry.Kind.WAITER, null, waiter2));
+        changes.add(new ChangeLogEntry(changes.size() + 1, ChangeLogEntry.Kind.ASSIGNMENT, table2, waiter1));
+        changes.add(new ChangeLogEntry(changes.size() + 1, ChangeLogEntry.Kind.ASSIGNMENT,
+                new Table("Table1", restaurant), waiter2));
+        changes.add(new ChangeLogEntry(changes.size() + 1, ChangeLogEntry.Kind.ASSIGNMENT,
+                table2, new Waiter("Waiter2")));
+        Mockito.when(persistenceService.loadChanges(Mockito.eq(0L), Mockito.anyInt())).thenReturn(changes);
+
+        managementService.refresh();
+
+        final Map<Table, Optional<Waiter>> expectedAssignments = new HashMap<>();
+        expectedAssignments.put(table1, Optional.of(waiter2));
+        expectedAssignments.put(table2, Optional.of(waiter2));
+        Assert.assertThat(managementService.displayAssignments("Restaurant1"), Matchers.is(expectedAssignments));
+        Assert.assertThat(managementService.displayTables("Waiter2"),
+                Matchers.is(Collections.singletonMap(restaurant, new HashSet<>(Arrays.asList(table1, table2)))));
+        Assert.assertThat(managementService.displayTables("Waiter1"), Matchers.is(Collections.emptyMap()));
+        Assert.assertThat(managementService.displayAssignments("Restaurant1", TableFilter.ASSIGNED, null, 2)
+                .getItems().stream().map(Map.Entry::getKey).collect(Collectors.toList()),
+                Matchers.contains(table1, table2));
+        Assert.assertThat(managementService.displayTables("Restaurant1", null, 2).getItems().stream()
+                .map(Map.Entry::getKey).collect(Collectors.toList()), Matchers.contains(waiter2));
+        Assert.assertThat(managementService.version(), Matchers.greaterThan(0L));
+
+        // The new table and waiter can be assigned here, without persisting changes that came from the log.
+        Assert.assertThat(managementService.assignWaiter("Waiter1", "Restaurant1", "Table2"), Matchers.empty());
+        Mockito.verify(persistenceService).assign(table2, waiter1);
+        Mockito.verify(persistenceService, Mockito.times(1))
+                .assign(Mockito.any(Table.class), Mockito.any(Waiter.class));
+
+        // Only later changes are read next.
+        managementService.refresh();
+        Mockito.verify(persistenceService).loadChanges(Mockito.eq((long) changes.size()), Mockito.anyInt());
+    }
+
+    @Test
+    public void shouldStartPruningOnlyOnceLoaded() {
+        final PersistenceService persistenceService = Mockito.mock(PersistenceService.class);
+        final ChangeLogProperties changeLogProperties = new ChangeLogProperties();
+        changeLogProperties.setEnabled(false);
+        changeLogProperties.setPruneIntervalMillis(PRUNE_INTERVAL_MILLIS);
+
+        Mockito.when(persistenceService.loadAll()).thenReturn(new PersistedState(
+                Collections.emptySet(), Collections.emptySet(), new HashMap<>()));
+        Mockito.when(persistenceService.earliestChangeId()).thenReturn(1L);
+        Mockito.when(persistenceService.latestChangeId()).thenReturn(changeLogProperties.getRetention() * 2);
+
+        final ManagementServiceImpl managementService = created(new ManagementServiceImpl(persistenceService,
+                new WriteBehindProperties(), changeLogProperties, new SnapshotProperties()));
+        Mockito.verify(persistenceService, Mockito.after(BACKGROUND_WAIT_MILLIS).never())
+                .pruneChanges(Mockito.anyLong());
+
+        managementService.load();
+        Mockito.verify(persistenceService, Mockito.timeout(BACKGROUND_WAIT_MILLIS).atLeastOnce())
+                .pruneChanges(Mockito.anyLong());
+    }
+
+    @Test
+    public void shouldPruneChangesBeyondRetentionWithoutPolling() {
+        final PersistenceService persistenceService = Mockito.mock(PersistenceService.class);
+        final long retention = new ChangeLogProperties().getRetention();
+
+        // Pruned whether or not loaded or reading the change log.
+        final ManagementServiceImpl managementService = created(new ManagementServiceImpl(persistenceService));
+
+        Mockito.when(persistenceService.earliestChangeId()).thenReturn(1L);
+        Mockito.when(persistenceService.latestChangeId()).thenReturn(retention);
+        managementService.pruneChanges();
+        Mockito.verify(persistenceService, Mockito.never()).pruneChanges(Mockito.anyLong());
+
+        Mockito.when(persistenceService.latestChangeId()).thenReturn(retention * 2);
+        managementService.pruneChanges();
+        Mockito.verify(persistenceService).pruneChanges(retention);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void shouldRejectWriteBehindWithChangeLog() {
+        final WriteBehindProperties writeBehindProperties = new WriteBehindProperties();
+        writeBehindProperties.setEnabled(true);
+
+        new ManagementServiceImpl(Mockito.mock(PersistenceService.class), writeBehindProperties,
+                new ChangeLogProperties(), new SnapshotProperties());
+    }
+
+    @Test
+    public void shouldRestorePersistedAssignmentsWhenWriteBehindFails() {
+        final Waiter waiter1 = new Waiter("Waiter1");
+        final Waiter waiter2 = new Waiter("Waiter2");
+        final Restaurant restaurant = new Restaurant("Restaurant1");
+        final Table table1 = new Table("Table1", restaurant);
+        final Table table2 = new Table("Table2", restaurant);
+
+        final PersistenceService persistenceService = Mockito.mock(PersistenceService.class);
+
+        // Initially, waiter1 has table1, and table2 is unassigned.
+        Mockito.when(persistenceService.loadAll()).thenReturn(new PersistedState(
+                new HashSet<>(Arrays.asList(table1, table2)),
+                new HashSet<>(Arrays.asList(waiter1, waiter2)),
+                Collections.singletonMap(waiter1, Collections.singleton(table1))));
+        final Map<Table, Waiter> persistedTableWaiters = new HashMap<>();
+        persistedTableWaiters.put(table1, waiter1);
+        persistedTableWaiters.put(table2, null);
+        Mockito.when(persistenceService.loadTableWaiters(restaurant)).thenReturn(persistedTableWaiters);
+
+        // Another instance has made conflicting assignments, only seen when persisting.
+        Mockito.doThrow(new OptimisticLockingFailureException("conflict")).when(persistenceService)
+                .assignAll(Mockito.anyMapOf(Table.class, Waiter.class));
+        Mockito.doThrow(new OptimisticLockingFailureException("conflict")).when(persistenceService)
+                .assign(Mockito.any(Table.class), Mockito.any(Waiter.class));
+
+        final WriteBehindProperties writeBehindProperties = new WriteBehindProperties();
+        writeBehindProperties.setEnabled(true);
+        final ChangeLogProperties changeLogProperties = new ChangeLogProperties();
+        changeLogProperties.setEnabled(false);
+        final ManagementServiceImpl managementService = created(new ManagementServiceImpl(persistenceService,
+                writeBehindProperties, changeLogProperties, new SnapshotProperties()));
+        managementService.load();
+
+        // Applied before they are persisted.
+        managementService.assignWaiter(waiter2, table1);
+        managementService.assignWaiter(waiter2, table2);
+        Assert.assertThat(managementService.displayAssignments(restaurant).get(table2),
+                Matchers.is(Optional.of(waiter2)));
+
+        // Flushed, and restored once they fail.
+        managementService.close();
+
+        Assert.assertThat(managementService.displayAssignments(restaurant).get(table1),
+                Matchers.is(Optional.of(waiter1)));
+        Assert.assertThat(managementService.displayAssignments(restaurant).get(table2),
+                Matchers.is(Optional.empty()));
+        Assert.assertThat(managementService.displayTables(waiter1),
+                Matchers.is(Collections.singletonMap(restaurant, Collections.singleton(table1))));
+        Assert.assertThat(managementService.displayTables(waiter2), Matchers.is(Collections.emptyMap()));
+        Assert.assertThat(managementService.displayAssignments("Restaurant1", TableFilter.UNASSIGNED, null, 2)
+                .getItems().stream().map(Map.Entry::getKey).collect(Collectors.toList()),
+                Matchers.contains(table2));
+    }
+
+    @Test
+    public void shouldReadAgainFromMissingChange() {
+        final Waiter waiter1 = new Waiter("Waiter1");
+        final Waiter waiter2 = new Waiter("Waiter2");
+        final Restaurant restaurant = new Restaurant("Restaurant1");
+        final Table table1 = new Table("Table1", restaurant);
+        final Table table2 = new Table("Table2", restaurant);
+
+        final PersistenceService persistenceService = Mockito.mock(PersistenceService.class);
+
+        Mockito.when(persistenceService.loadAll()).thenReturn(new PersistedState(
+                new HashSet<>(Arrays.asList(table1, table2)),
+                new HashSet<>(Arrays.asList(waiter1, waiter2)),
+                new HashMap<>()));
+
+        final ManagementServiceImpl managementService = created(new ManagementServiceImpl(persistenceService));
+        managementService.load();
+
+        // Change 2 is in a transaction not yet committed.
+        final ChangeLogEntry change1 = new ChangeLogEntry(1, ChangeLogEntry.Kind.ASSIGNMENT, table1, waiter1);
+        final ChangeLogEntry change2 = new ChangeLogEntry(2, ChangeLogEntry.Kind.ASSIGNMENT, table2, waiter1);
+        final ChangeLogEntry change3 =
+                new ChangeLogEntry(change2.getId() + 1, ChangeLogEntry.Kind.ASSIGNMENT, table1, waiter2);
+        Mockito.when(persistenceService.loadChanges(Mockito.eq(0L), Mockito.anyInt()))
+                .thenReturn(Arrays.asList(change1, change3));
+        Mockito.when(persistenceService.loadChanges(Mockito.eq(1L), Mockito.anyInt()))
+                .thenReturn(Arrays.asList(change2, change3));
+
+        managementService.refresh();
+        Assert.assertThat(managementService.displayAssignments("Restaurant1").get(table1),
+                Matchers.is(Optional.of(waiter2)));
+        Assert.assertThat(managementService.displayAssignments("Restaurant1").get(table2),
+                Matchers.is(Optional.empty()));
+
+        // Read again from the missing change, which is now committed.
+        managementService.refresh();
+        Assert.assertThat(managementService.displayAssignments("Restaurant1").get(table1),
+                Matchers.is(Optional.of(waiter2)));
+        Assert.assertThat(managementService.displayAssignments("Restaurant1").get(table2),
+                Matchers.is(Optional.of(waiter1)));
+
+        managementService.refresh();
+        Mockito.verify(persistenceService).loadChanges(Mockito.eq(change3.getId()), Mockito.anyInt());
+    }
+
+    @Test
+    public void shouldNotReplaceNewerAssignmentWithOlderChange() {
+        final Waiter waiter1 = new Waiter("Waiter1");
+        final Waiter waiter2 = new Waiter("Waiter2");
+        final Restaurant restaurant = new Restaurant("Restaurant1");
+        final Table table = new Table("Table1", restaurant);
+
+        final PersistenceService persistenceService = Mockito.mock(PersistenceService.class);
+
+        Mockito.when(persistenceService.loadAll()).thenReturn(new PersistedState(
+                Collections.singleton(table),
+                new HashSet<>(Arrays.asList(waiter1, waiter2)),
+                new HashMap<>()));
+
+        final ManagementServiceImpl managementService = created(new ManagementServiceImpl(persistenceService));
+        managementService.load();
+
+        // Another instance assigned waiter1 just before this one assigned waiter2, and neither was read yet.
+        final ChangeLogEntry change1 = new ChangeLogEntry(1, ChangeLogEntry.Kind.ASSIGNMENT, table, waiter1);
+        final ChangeLogEntry change2 = new ChangeLogEntry(2, ChangeLogEntry.Kind.ASSIGNMENT, table, waiter2);
+        Mockito.when(persistenceService.assign(table, waiter2)).thenReturn(change2.getId());
+        Mockito.when(persistenceService.loadChanges(Mockito.eq(0L), Mockito.anyInt()))
+                .thenReturn(Collections.singletonList(change1));
+
+        managementService.assignWaiter(waiter2, table);
+        managementService.refresh();
+        Assert.assertThat(managementService.displayAssignments(restaurant).get(table),
+                Matchers.is(Optional.of(waiter2)));
+
+        // A later change from another instance is still applied.
+        final ChangeLogEntry change3 =
+                new ChangeLogEntry(change2.getId() + 1, ChangeLogEntry.Kind.ASSIGNMENT, table, waiter1);
+        Mockito.when(persistenceService.loadChanges(Mockito.eq(change1.getId()), Mockito.anyInt()))
+                .thenReturn(Arrays.asList(change2, change3));
+
+        managementService.refresh();
+        Assert.assertThat(managementService.displayAssignments(restaurant).get(table),
+                Matchers.is(Optional.of(waiter1)));
+    }
+
+    @Test
+    public void shouldRefreshAndRetryOnConflict() {
+        final Waiter waiter1 = new Waiter("Waiter1");
+        final Waiter waiter2 = new Waiter("Waiter2");
+        final Restaurant restaurant = new Restaurant("Restaurant1");
+
+        final List<Table> tables = new ArrayList<>();
+        for (int i = 0; i <= MAX_TABLES_PER_RESTAURANT; i++) {
+            tables.add(new Table("Table" + i, restaurant));
+        }
+
+        final PersistenceService persistenceService = Mockito.mock(PersistenceService.class);
+
+        // Waiter1 has one table less than the maximum.
+        Mockito.when(persistenceService.loadAll()).thenReturn(new PersistedState(
+                new HashSet<>(tables),
+                new HashSet<>(Arrays.asList(waiter1, waiter2)),
+                Collections.singletonMap(waiter1, new HashSet<>(tables.subList(0, MAX_TABLES_PER_RESTAURANT - 1)))));
+
+        final ManagementServiceImpl managementService = created(new ManagementServiceImpl(persistenceService));
+        managementService.load();
+
+        // Another instance has just assigned waiter1 another table, which is only seen when persisting.
+        final Table otherTable = tables.get(MAX_TABLES_PER_RESTAURANT - 1);
+        final Table table = tables.get(MAX_TABLES_PER_RESTAURANT);
+        Mockito.when(persistenceService.loadChanges(Mockito.eq(0L), Mockito.anyInt())).thenReturn(
+                Collections.singletonList(new ChangeLogEntry(1, ChangeLogEntry.Kind.ASSIGNMENT, otherTable, waiter1)));
+        Mockito.doThrow(new OptimisticLockingFailureException("conflict")).when(persistenceService)
+                .assign(table, waiter1);
+
+        // Retried after applying the other instance's assignment, so it is now rejected.
+        Assert.assertThat(managementService.assignWaiter(waiter1, table), Matchers.contains(waiter2));
+
+        Mockito.verify(persistenceService).assign(table, waiter1);
+        Assert.assertThat(managementService.displayAssignments(restaurant).get(otherTable),
+                Matchers.is(Optional.of(waiter1)));
+        Assert.assertThat(managementService.displayAssignments(restaurant).get(table), Matchers.is(Optional.empty()));
+    }
+
+    @Test
+    public void shouldGiveUpAfterRepeatedConflicts() {
+        final Waiter waiter = new Waiter("Waiter1");
+        final Restaurant restaurant = new Restaurant("Restaurant1");
+        final Table table = new Table("Table1", restaurant);
+
+        final PersistenceService persistenceService = Mockito.mock(PersistenceService.class);
+
+        Mockito.when(persistenceService.loadAll()).thenReturn(new PersistedState(
+                Collections.singleton(table),
+                Collections.singleton(waiter),
+                new HashMap<>()));
+        Mockito.doThrow(new OptimisticLockingFailureException("conflict")).when(persistenceService)
+                .assignAll(Mockito.anyMapOf(Table.class, Waiter.class));
+
+        final ManagementServiceImpl managementService = created(new ManagementServiceImpl(persistenceService));
+        managementService.load();
+
+        try {
+            managementService.assignWaiters(Collections.singletonMap(table, waiter));
+            Assert.fail("expected a conflict");
+        } catch (OptimisticLockingFailureException e) {
+            // Expected.
+        }
+
+        Mockito.verify(persistenceService, Mockito.times(MAX_ASSIGNMENT_ATTEMPTS))
+                .assignAll(Collections.singletonMap(table, waiter));
+        Assert.assertThat(managementService.displayAssignments(restaurant).get(table), Matchers.is(Optional.empty()));
+        Assert.assertThat(managementService.version(), Matchers.is(0L));
+    }
+
+    @Test
+    public void shouldRejectRequestsUntilLoaded() {
+        final Waiter waiter = new Waiter("Waiter1");
+        final Restaurant restaurant = new Restaurant("Restaurant1");
+        final Table table = new Table("Table1", restaurant);
+
+        final PersistenceService persistenceService = Mockito.mock(PersistenceService.class);
+
+        Mockito.when(persistenceService.loadAll()).thenReturn(new PersistedState(
+                Collections.singleton(table),
+                Collections.singleton(waiter),
+                new HashMap<>()));
+
+        final ManagementServiceImpl managementService = created(new ManagementServiceImpl(persistenceService));
+        Assert.assertThat(managementService.readiness().getStatus(), Matchers.is(Readiness.Status.LOADING));
+
+        try {
+            managementService.assignWaiter(waiter, table);
+            Assert.fail("expected not ready");
+        } catch (NotReadyException e) {
+            // Expected.
+        }
+
+        // The request did not load.
+        Mockito.verify(persistenceService, Mockito.never()).loadAll();
+
+        managementService.load();
+        managementService.load();
+
+        Mockito.verify(persistenceService).loadAll();
+        Assert.assertThat(managementService.readiness().getStatus(), Matchers.is(Readiness.Status.READY));
+        Assert.assertThat(managementService.assignWaiter(waiter, table), Matchers.is(Collections.emptySet()));
+    }
+
+    @Test
+    public void shouldShowLoadingWhileLoadingInBackground() throws Exception {
+        final Waiter waiter = new Waiter("Waiter1");
+        final Table table = new Table("Table1", new Restaurant("Restaurant1"));
+
+        final PersistenceService persistenceService = Mockito.mock(PersistenceService.class);
+
+        final CountDownLatch loadingLatch = new CountDownLatch(1);
+        final CountDownLatch loadedLatch = new CountDownLatch(1);
+        Mockito.when(persistenceService.loadAll()).thenAnswer(invocation -> {
+            loadingLatch.countDown();
+            loadedLatch.await();
+            return new PersistedState(Collections.singleton(table), Collections.singleton(waiter), new HashMap<>());
+        });
+
+        final ManagementServiceImpl managementService = created(new ManagementServiceImpl(persistenceService));
+        managementService.startLoading();
+        Assert.assertTrue(loadingLatch.await(BACKGROUND_WAIT_MILLIS, TimeUnit.MILLISECONDS));
+
+        Assert.assertThat(managementService.readiness().getStatus(), Matchers.is(Readiness.Status.LOADING));
+        try {
+            managementService.assignWaiter(waiter, table);
+            Assert.fail("expected not ready");
+        } catch (NotReadyException e) {
+            // Expected.
+        }
+
+        loadedLatch.countDown();
+        final long deadlineNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(BACKGROUND_WAIT_MILLIS);
+        while ((managementService.readiness().getStatus() != Readiness.Status.READY)
+                && (System.nanoTime() < deadlineNanos)) {
+            Thread.sleep(1);
+        }
+
+        Assert.assertThat(managementService.readiness().getStatus(), Matchers.is(Readiness.Status.READY));
+        Assert.assertThat(managementService.assignWaiter(waiter, table), Matchers.is(Collections.emptySet()));
+    }
+
+    @Test
+    public void shouldNotCountReassigningToEqualWaiter() {
+        final Restaurant restaurant = new Restaurant("Restaurant1");
+        final List<Table> tables = new ArrayList<>();
+        for (int i = 0; i < MAX_TABLES_PER_RESTAURANT; i++) {
+            tables.add(new Table("Table" + i, restaurant));
+        }
+
+        final PersistenceService persistenceService = Mockito.mock(PersistenceService.class);
+
+        Mockito.when(persistenceService.loadAll()).thenReturn(new PersistedState(
+                new HashSet<>(tables),
+                Collections.singleton(new Waiter("Waiter1")),
+                new HashMap<>()));
+
+        final ManagementServiceImpl managementService = created(new ManagementServiceImpl(persistenceService));
+        managementService.load();
+
+        // A different object each time, equal to the loaded waiter.
+        for (final Table table: tables) {
+            Assert.assertThat(managementService.assignWaiter(new Waiter("Waiter1"), table),
+                    Matchers.is(Collections.emptySet()));
+        }
+
+        // Already the table's waiter, so it is not another table over the maximum.
+        final long version = managementService.version();
+        Assert.assertThat(managementService.assignWaiter(new Waiter("Waiter1"), tables.get(0)),
+                Matchers.is(Collections.emptySet()));
+        Assert.assertThat(managementService.version(), Matchers.is(version));
+    }
+
+    @Test
+    public void shouldLoadFromSnapshotAndCatchUp() throws Exception {
+        final Restaurant restaurant = new Restaurant("Restaurant1");
+        final Table table1 = new Table("Table1", restaurant);
+        final Table table2 = new Table("Table2", restaurant);
+        final Waiter waiter1 = new Waiter("Waiter1");
+        final Waiter waiter2 = new Waiter("Waiter2");
+
+        final PersistenceService persistenceService = Mockito.mock(PersistenceService.class);
+
+        Mockito.when(persistenceService.loadAll()).thenReturn(new PersistedState(
+                new HashSet<>(Arrays.asList(table1, table2)),
+                new HashSet<>(Arrays.asList(waiter1, waiter2)),
+                new HashMap<>()));
+
+        final SnapshotProperties snapshotProperties = new SnapshotProperties();
+        snapshotProperties.setEnabled(true);
+        snapshotProperties.setPath(temporaryFolder.getRoot().toPath().resolve("restaurant.snapshot").toString());
+
+        final ManagementServiceImpl managementService = created(new ManagementServiceImpl(persistenceService,
+                new WriteBehindProperties(), new ChangeLogProperties(), snapshotProperties));
+        managementService.load();
+        Assert.assertThat(managementService.assignWaiter(waiter1, table1), Matchers.is(Collections.emptySet()));
+        managementService.close();
+
+        // The assignment was logged before the snapshot, and another instance reassigned the table after it.
+        Mockito.when(persistenceService.latestChangeId()).thenReturn(2L);
+        Mockito.when(persistenceService.loadChanges(Mockito.eq(0L), Mockito.anyInt())).thenReturn(Arrays.asList(
+                new ChangeLogEntry(1L, ChangeLogEntry.Kind.ASSIGNMENT, table1, waiter1),
+                new ChangeLogEntry(2L, ChangeLogEntry.Kind.ASSIGNMENT, table2, waiter2)));
+
+        final ManagementServiceImpl restartedManagementService = created(new ManagementServiceImpl(
+                persistenceService, new WriteBehindProperties(), new ChangeLogProperties(), snapshotProperties));
+        restartedManagementService.load();
+
+        Mockito.verify(persistenceService, Mockito.times(1)).loadAll();
+        final Map<Table, Optional<Waiter>> expectedAssignments = new HashMap<>();
+        expectedAssignments.put(table1, Optional.of(waiter1));
+        expectedAssignments.put(table2, Optional.of(waiter2));
+        Assert.assertThat(restartedManagementService.displayAssignments("Restaurant1"),
+                Matchers.is(expectedAssignments));
+        Assert.assertThat(restartedManagementService.displayTables("Waiter2"),
+                Matchers.is(Collections.singletonMap(restaurant, Collections.singleton(table2))));
+    }
+
+    /**
+     * Keep a created service to be closed after the test.
+     */
+    private ManagementServiceImpl created(ManagementServiceImpl managementService) {
+        managementServices.add(managementService);
+        return managementService;
+    }
 }
@@ -9,20 +9,36 @@ import com.mparaz.restaurant.persistence.TableEntity;
 import com.mparaz.restaurant.persistence.TableEntityRepository;
 import com.mparaz.restaurant.persistence.WaiterEntity;
 import com.mparaz.restaurant.persistence.WaiterEntityRepository;
+import com.mparaz.restaurant.service.ChangeLogEntry;
+import com.mparaz.restaurant.service.PersistedState;
 import com.mparaz.restaurant.service.PersistenceService;
+import com.mparaz.restaurant.service.ProvisioningResult;
 import org.hamcrest.Matchers;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
 import org.junit.Assert;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.test.context.TestPropertySource;
 import org.springframework.test.context.junit4.SpringRunner;
 
+import javax.persistence.EntityManagerFactory;
 import javax.transaction.Transactional;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
+import java.util.stream.Collectors;
 
 /**
  * Spring Integration tests for persistence.
@@ -30,6 +46,7 @@ import java.util.Set;
 @SpringBootTest
 @RunWith(SpringRunner.class)
 @Transactional
+@TestPropertySource(properties = "restaurant.change-log.enabled=false")
 public class PersistenceServiceImplIntegrationTest {
 
     private PersistenceService persistenceService;
@@ -40,6 +57,12 @@ public class PersistenceServiceImplIntegrationTest {
 
     private WaiterEntityRepository waiterEntityRepository;
 
+    private LoadProperties loadProperties;
+
+    private SessionFactory sessionFactory;
+
+    private NamedParameterJdbcTemplate namedParameterJdbcTemplate;
+
     @Test
     public void shouldPersist() {
         final Restaurant restaurant = new Restaurant("Test restaurant");
@@ -83,12 +106,274 @@ public class PersistenceServiceImplIntegrationTest {
         Assert.assertThat(waiterTableAssignments.get(waiter), Matchers.is(Collections.singleton(table)));
     }
 
+    @Test
+    public void shouldReassign() {
+        final Restaurant restaurant = new Restaurant("Test restaurant");
+
+        final Table table = new Table("Test123", restaurant);
+
+        final Waiter waiter1 = new Waiter("Test waiter");
+        final Waiter waiter2 = new Waiter("Test waiter 2");
+
+        persistenceService.assign(table, waiter1);
+        persistenceService.assign(table, waiter2);
+
+        // Only the latest waiter has the table.
+        final Map<Waiter, Set<Table>> waiterTableAssignments = persistenceService.loadWaiterTableAssignments();
+
+        Assert.assertThat(waiterTableAssignments.get(waiter1), Matchers.is(Collections.emptySet()));
+        Assert.assertThat(waiterTableAssignments.get(waiter2), Matchers.is(Collections.singleton(table)));
+    }
+
+    @Test
+    public void shouldLoadAll() {
+
+        final Restaurant restaurant = new Restaurant("Test restaurant");
+
+        final Table table1 = new Table("Test123", restaurant);
+        final Table table2 = new Table("Test456", restaurant);
+
+        final Waiter waiter1 = new Waiter("Test waiter");
+        final Waiter waiter2 = new Waiter("Test waiter without tables");
+
+        persistenceService.assign(table1, waiter1);
+        persistenceService.createTable(table2);
+        persistenceService.createWaiter(waiter2);
+
+        final PersistedState persistedState = persistenceService.loadAll();
+
+        Assert.assertThat(persistedState.getTables(), Matchers.hasItems(table1, table2));
+        Assert.assertThat(persistedState.getWaiters(), Matchers.hasItems(waiter1, waiter2));
+        Assert.assertThat(persistedState.getWaiterTableAssignments().get(waiter1),
+                Matchers.is(Collections.singleton(table1)));
+        Assert.assertThat(persistedState.getWaiterTableAssignments().get(waiter2),
+                Matchers.is(Collections.emptySet()));
+    }
+
+    @Test
+    public void shouldLoadAllInRangesOfTables() {
+        final Restaurant restaurant = new Restaurant("Ranged restaurant");
+
+        final Table table1 = new Table("Test123", restaurant);
+        final Table table2 = new Table("Test456", restaurant);
+        final Table table3 = new Table("Test789", restaurant);
+
+        final Waiter waiter = new Waiter("Ranged waiter");
+
+        persistenceService.assign(table1, waiter);
+        persistenceService.assign(table3, waiter);
+        persistenceService.createTable(table2);
+
+        // One table per range.
+        final int partitionSize = loadProperties.getPartitionSize();
+        loadProperties.setPartitionSize(1);
+        final PersistedState persistedState;
+        try {
+            persistedState = persistenceService.loadAll();
+        } finally {
+            loadProperties.setPartitionSize(partitionSize);
+        }
+
+        Assert.assertThat(persistedState.getTables(), Matchers.hasItems(table1, table2, table3));
+        Assert.assertThat(persistedState.getWaiterTableAssignments().get(waiter),
+                Matchers.is(new HashSet<>(Arrays.asList(table1, table3))));
+
+        // The ranges share one restaurant object.
+        final Set<Restaurant> restaurants = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (final Table table : persistedState.getTables()) {
+            if (table.getRestaurant().equals(restaurant)) {
+                restaurants.add(table.getRestaurant());
+            }
+        }
+        Assert.assertThat(restaurants.size(), Matchers.is(1));
+    }
+
+    @Test
+    public void shouldProvisionAndSkipExisting() {
+        final Restaurant restaurant1 = new Restaurant("Provisioned restaurant 1");
+        final Restaurant restaurant2 = new Restaurant("Provisioned restaurant 2");
+
+        final Table table1 = new Table("P1", restaurant1);
+        final Table table2 = new Table("P2", restaurant1);
+        final Table table3 = new Table("P1", restaurant2);
+
+        final Waiter waiter1 = new Waiter("Provisioned waiter 1");
+        final Waiter waiter2 = new Waiter("Provisioned waiter 2");
+
+        final ProvisioningResult provisioningResult1 = persistenceService.provision(
+                new HashSet<>(Arrays.asList(table1, table2)), Collections.singleton(waiter1));
+
+        Assert.assertThat(provisioningResult1.getRestaurantsCreated(), Matchers.is(1));
+        Assert.assertThat(provisioningResult1.getTablesCreated(), Matchers.is(2));
+        Assert.assertThat(provisioningResult1.getWaitersCreated(), Matchers.is(1));
+
+        // Only the new restaurant, table and waiter are created.
+        final ProvisioningResult provisioningResult2 = persistenceService.provision(
+                new HashSet<>(Arrays.asList(table1, table2, table3)), new HashSet<>(Arrays.asList(waiter1, waiter2)));
+
+        Assert.assertThat(provisioningResult2.getRestaurantsCreated(), Matchers.is(1));
+        Assert.assertThat(provisioningResult2.getTablesCreated(), Matchers.is(1));
+        Assert.assertThat(provisioningResult2.getWaitersCreated(), Matchers.is(1));
+
+        // Verify using direct persistence.
+        final Optional<RestaurantEntity> provisionedRestaurant1 =
+                restaurantEntityRepository.findByName("Provisioned restaurant 1");
+        Assert.assertTrue(provisionedRestaurant1.isPresent());
+        Assert.assertThat(provisionedRestaurant1.get().getTables().size(), Matchers.is(2));
+        Assert.assertTrue(tableEntityRepository.findByNumberAndRestaurant("P2", provisionedRestaurant1.get())
+                .isPresent());
+        Assert.assertTrue(waiterEntityRepository.findByName("Provisioned waiter 2").isPresent());
+    }
+
+    @Test
+    public void shouldLogChanges() {
+        final long latestChangeId = persistenceService.latestChangeId();
+
+        final Table table = new Table("Test123", new Restaurant("Test restaurant"));
+        final Waiter waiter = new Waiter("Test waiter");
+
+        persistenceService.assign(table, waiter);
+        final long assignmentChangeId = persistenceService.assign(table, waiter);
+
+        // The table and waiter are logged only when created, and every assignment is logged.
+        final List<ChangeLogEntry> changes = persistenceService.loadChanges(latestChangeId, Integer.MAX_VALUE);
+        Assert.assertThat(changes.stream().map(ChangeLogEntry::getKind).collect(Collectors.toList()),
+                Matchers.contains(ChangeLogEntry.Kind.TABLE, ChangeLogEntry.Kind.WAITER,
+                        ChangeLogEntry.Kind.ASSIGNMENT, ChangeLogEntry.Kind.ASSIGNMENT));
+        Assert.assertThat(changes.get(0).getTable(), Matchers.is(table));
+        Assert.assertThat(changes.get(1).getWaiter(), Matchers.is(waiter));
+        Assert.assertThat(changes.get(changes.size() - 1).getTable(), Matchers.is(table));
+        Assert.assertThat(changes.get(changes.size() - 1).getWaiter(), Matchers.is(waiter));
+        Assert.assertThat(persistenceService.latestChangeId(), Matchers.is(changes.get(changes.size() - 1).getId()));
+        Assert.assertThat(assignmentChangeId, Matchers.is(changes.get(changes.size() - 1).getId()));
+
+        persistenceService.pruneChanges(persistenceService.latestChangeId());
+        Assert.assertThat(persistenceService.earliestChangeId(), Matchers.is(persistenceService.latestChangeId()));
+    }
+
+    // IDs are only cached once committed, so these run without the test's transaction, and their rows remain.
+    // The change log is not read, so that reloading in the background does not add to the counted work.
+
+    @Test
+    @Transactional(Transactional.TxType.NOT_SUPPORTED)
+    public void shouldAssignAgainByCachedIds() {
+        final Restaurant restaurant = new Restaurant("Cached ID restaurant");
+        final Table table1 = new Table("Test123", restaurant);
+        final Table table2 = new Table("Test456", restaurant);
+        final Waiter waiter1 = new Waiter("Cached ID waiter 1");
+        final Waiter waiter2 = new Waiter("Cached ID waiter 2");
+
+        persistenceService.assign(table1, waiter1);
+        persistenceService.assign(table2, waiter2);
+
+        final long hibernateWork = hibernateWork();
+        persistenceService.assign(table1, waiter2);
+
+        // Only the update, by JDBC.
+        Assert.assertThat(hibernateWork(), Matchers.is(hibernateWork));
+        Assert.assertThat(persistenceService.loadWaiterTableAssignments().get(waiter2),
+                Matchers.is(new HashSet<>(Arrays.asList(table1, table2))));
+    }
+
+    @Test
+    @Transactional(Transactional.TxType.NOT_SUPPORTED)
+    public void shouldAssignProvisionedByCachedIds() {
+        final Table table = new Table("Test123", new Restaurant("Provisioned cached ID restaurant"));
+        final Waiter waiter = new Waiter("Provisioned cached ID waiter");
+
+        persistenceService.provision(Collections.singleton(table), Collections.singleton(waiter));
+
+        final long hibernateWork = hibernateWork();
+        persistenceService.assign(table, waiter);
+
+        Assert.assertThat(hibernateWork(), Matchers.is(hibernateWork));
+        Assert.assertThat(persistenceService.loadWaiterTableAssignments().get(waiter),
+                Matchers.is(Collections.singleton(table)));
+    }
+
+    @Test
+    @Transactional(Transactional.TxType.NOT_SUPPORTED)
+    public void shouldRejectAssignByCachedIdsOfTableChangedElsewhere() {
+        final Table table = new Table("Test123", new Restaurant("Changed cached ID restaurant"));
+        final Waiter waiter1 = new Waiter("Changed cached ID waiter 1");
+        final Waiter waiter2 = new Waiter("Changed cached ID waiter 2");
+
+        persistenceService.assign(table, waiter1);
+        persistenceService.assign(table, waiter2);
+
+        // As another instance would.
+        Assert.assertThat(namedParameterJdbcTemplate.update("update restaurant_table set version = version + 1"
+                        + " where number = :number and restaurant_id = (select id from restaurant where name = :name)",
+                new MapSqlParameterSource("number", table.getNumber())
+                        .addValue("name", table.getRestaurant().getName())), Matchers.is(1));
+
+        try {
+            persistenceService.assign(table, waiter1);
+            Assert.fail("expected a conflict");
+        } catch (OptimisticLockingFailureException e) {
+            // Expected.
+        }
+
+        // Retried, the table is looked up again.
+        persistenceService.assign(table, waiter1);
+        Assert.assertThat(persistenceService.loadWaiterTableAssignments().get(waiter1),
+                Matchers.is(Collections.singleton(table)));
+    }
+
+    /**
+     * Statements prepared by Hibernate, and query and entity cache hits, which it has instead of statements.
+     */
+    private long hibernateWork() {
+        final Statistics statistics = sessionFactory.getStatistics();
+        return statistics.getPrepareStatementCount() + statistics.getQueryCacheHitCount()
+                + statistics.getSecondLevelCacheHitCount();
+    }
+
+    @Test(expected = OptimisticLockingFailureException.class)
+    public void shouldRejectMoreThanMaximumTablesFromConcurrentAssignments() {
+        final Restaurant restaurant = new Restaurant("Test restaurant");
+        final Waiter waiter = new Waiter("Test waiter");
+
+        // As if assigned by instances which each saw fewer of the waiter's tables.
+        for (int i = 0; i < ManagementServiceImpl.MAX_TABLES_PER_RESTAURANT; i++) {
+            persistenceService.assign(new Table("Test" + i, restaurant), waiter);
+        }
+
+        persistenceService.assign(new Table("Test" + ManagementServiceImpl.MAX_TABLES_PER_RESTAURANT, restaurant),
+                waiter);
+    }
+
+    @Test(expected = DataIntegrityViolationException.class)
+    public void shouldRejectDuplicateTableNumberInRestaurant() {
+        persistenceService.createTable(new Table("Test123", new Restaurant("Test restaurant")));
+
+        final TableEntity duplicateTableEntity = new TableEntity();
+        duplicateTableEntity.setNumber("Test123");
+        duplicateTableEntity.setRestaurant(restaurantEntityRepository.findByName("Test restaurant").get());
+
+        tableEntityRepository.save(duplicateTableEntity);
+    }
 
     @Autowired
     public void setPersistenceService(PersistenceService persistenceService) {
         this.persistenceService = persistenceService;
     }
 
+    @Autowired
+    public void setLoadProperties(LoadProperties loadProperties) {
+        this.loadProperties = loadProperties;
+    }
+
+    @Autowired
+    public void setEntityManagerFactory(EntityManagerFactory entityManagerFactory) {
+        this.sessionFactory = entityManagerFactory.unwrap(SessionFactory.class);
+    }
+
+    @Autowired
+    public void setNamedParameterJdbcTemplate(NamedParameterJdbcTemplate namedParameterJdbcTemplate) {
+        this.namedParameterJdbcTemplate = namedParameterJdbcTemplate;
+    }
+
     @Autowired
     public void setRestaurantEntityRepository(RestaurantEntityRepository restaurantEntityRepository) {
         this.restaurantEntityRepository = restaurantEntityRepository;
@@ -0,0 +1,86 @@
+package com.mparaz.restaurant.service.impl;
+
+import com.mparaz.restaurant.Restaurant;
+import com.mparaz.restaurant.Table;
+import com.mparaz.restaurant.Waiter;
+import com.mparaz.restaurant.service.PersistedState;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Unit tests for the snapshot file.
+ */
+public class SnapshotFileTest {
+
+    private static final long CHANGE_ID = 42L;
+
+    @Rule
+    public final TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void shouldReadWhatWasWritten() throws Exception {
+        final Restaurant restaurant1 = new Restaurant("Restaurant1");
+        final Restaurant restaurant2 = new Restaurant("Restaurant \u00e9");
+        final Table table1 = new Table("Table1", restaurant1);
+        final Table table2 = new Table("Table2", restaurant1);
+        final Table table3 = new Table("Table1", restaurant2);
+        final Waiter waiter1 = new Waiter("Waiter1");
+        final Waiter waiter2 = new Waiter("Waiter2");
+
+        // waiter2 is only found on a table.
+        final Map<Table, Waiter> tableWaiters = new HashMap<>();
+        tableWaiters.put(table1, waiter1);
+        tableWaiters.put(table3, waiter2);
+
+        final SnapshotFile snapshotFile = new SnapshotFile(snapshotPath());
+        snapshotFile.write(CHANGE_ID, Arrays.asList(table1, table2, table3), Collections.singletonList(waiter1),
+                tableWaiters::get);
+
+        final Snapshot snapshot = snapshotFile.read();
+        Assert.assertEquals(CHANGE_ID, snapshot.getChangeId());
+
+        final PersistedState persistedState = snapshot.getPersistedState();
+        Assert.assertEquals(new HashSet<>(Arrays.asList(table1, table2, table3)), persistedState.getTables());
+        Assert.assertEquals(new HashSet<>(Arrays.asList(waiter1, waiter2)), persistedState.getWaiters());
+
+        final Map<Waiter, Set<Table>> expectedWaiterTables = new HashMap<>();
+        expectedWaiterTables.put(waiter1, Collections.singleton(table1));
+        expectedWaiterTables.put(waiter2, Collections.singleton(table3));
+        Assert.assertEquals(expectedWaiterTables, persistedState.getWaiterTableAssignments());
+    }
+
+    @Test
+    public void shouldNotReadCorruptOrMissingSnapshot() throws Exception {
+        final SnapshotFile snapshotFile = new SnapshotFile(snapshotPath());
+        Assert.assertNull(snapshotFile.read());
+
+        snapshotFile.write(CHANGE_ID, Collections.singletonList(new Table("Table1", new Restaurant("Restaurant1"))),
+                Collections.singletonList(new Waiter("Waiter1")), table -> null);
+        Assert.assertNotNull(snapshotFile.read());
+
+        // Change the last byte of the body, which the checksum covers.
+        final byte[] bytes = Files.readAllBytes(snapshotPath());
+        bytes[bytes.length - 1]++;
+        Files.write(snapshotPath(), bytes);
+        Assert.assertNull(snapshotFile.read());
+
+        // Cut short, as by a crash during a copy.
+        Files.write(snapshotPath(), Arrays.copyOf(bytes, bytes.length / 2));
+        Assert.assertNull(snapshotFile.read());
+    }
+
+    private Path snapshotPath() {
+        return temporaryFolder.getRoot().toPath().resolve("restaurant.snapshot");
+    }
+}
@@ -0,0 +1,171 @@
+package com.mparaz.restaurant.service.impl;
+
+import com.mparaz.restaurant.Restaurant;
+import com.mparaz.restaurant.Table;
+import com.mparaz.restaurant.Waiter;
+import com.mparaz.restaurant.service.PersistenceService;
+import org.hamcrest.Matchers;
+import org.junit.Assert;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mockito;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Unit tests for write-behind persistence.
+ */
+public class WriteBehindAssignmentWriterTest {
+
+    private static final long LONG_FLUSH_INTERVAL_MILLIS = 60000;
+
+    private static final int THREADS = 4;
+
+    private static final int TABLES_PER_THREAD = 200;
+
+    private static final int SMALL_QUEUE_CAPACITY = 4;
+
+    private static final int ROUNDS = 100;
+
+    private static final long TIMEOUT_SECONDS = 30;
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void shouldPersistLastAssignmentOfEachTableOnClose() {
+        final Restaurant restaurant = new Restaurant("Restaurant1");
+        final Table table1 = new Table("Table1", restaurant);
+        final Table table2 = new Table("Table2", restaurant);
+        final Waiter waiter1 = new Waiter("Waiter1");
+        final Waiter waiter2 = new Waiter("Waiter2");
+
+        final PersistenceService persistenceService = Mockito.mock(PersistenceService.class);
+
+        // Gather for longer than the test, so that everything is flushed on close in one batch.
+        final WriteBehindProperties writeBehindProperties = new WriteBehindProperties();
+        writeBehindProperties.setFlushIntervalMillis(LONG_FLUSH_INTERVAL_MILLIS);
+
+        final WriteBehindAssignmentWriter writeBehindAssignmentWriter =
+                new WriteBehindAssignmentWriter(persistenceService, writeBehindProperties,
+                        failedTables -> { });
+
+        writeBehindAssignmentWriter.write(table1, waiter1);
+        writeBehindAssignmentWriter.write(table2, waiter1);
+        writeBehindAssignmentWriter.write(table1, waiter2);
+
+        writeBehindAssignmentWriter.close();
+
+        final Map<Table, Waiter> expectedTableWaiters = new HashMap<>();
+        expectedTableWaiters.put(table1, waiter2);
+        expectedTableWaiters.put(table2, waiter1);
+
+        final ArgumentCaptor<Map<Table, Waiter>> tableWaitersCaptor =
+                ArgumentCaptor.forClass((Class<Map<Table, Waiter>>) (Class<?>) Map.class);
+        Mockito.verify(persistenceService).assignAll(tableWaitersCaptor.capture());
+        Assert.assertThat(tableWaitersCaptor.getValue(), Matchers.is(expectedTableWaiters));
+        Mockito.verify(persistenceService, Mockito.never()).assign(Mockito.any(Table.class), Mockito.any(Waiter.class));
+    }
+
+    @Test
+    public void shouldPersistOneByOneWhenBatchFails() {
+        final Restaurant restaurant = new Restaurant("Restaurant1");
+        final Table table1 = new Table("Table1", restaurant);
+        final Table table2 = new Table("Table2", restaurant);
+        final Waiter waiter = new Waiter("Waiter1");
+
+        final PersistenceService persistenceService = Mockito.mock(PersistenceService.class);
+        Mockito.doThrow(new IllegalStateException("batch failed")).when(persistenceService)
+                .assignAll(Mockito.anyMapOf(Table.class, Waiter.class));
+        Mockito.doThrow(new IllegalStateException("table1 failed")).when(persistenceService).assign(table1, waiter);
+
+        final WriteBehindProperties writeBehindProperties = new WriteBehindProperties();
+        writeBehindProperties.setFlushIntervalMillis(LONG_FLUSH_INTERVAL_MILLIS);
+
+        final Set<Table> reportedTables = ConcurrentHashMap.newKeySet();
+        final WriteBehindAssignmentWriter writeBehindAssignmentWriter =
+                new WriteBehindAssignmentWriter(persistenceService, writeBehindProperties, reportedTables::addAll);
+
+        writeBehindAssignmentWriter.write(table1, waiter);
+        writeBehindAssignmentWriter.write(table2, waiter);
+        Assert.assertTrue(writeBehindAssignmentWriter.isPending(table1));
+
+        writeBehindAssignmentWriter.close();
+
+        // table2 is still persisted, even though table1 fails, which is reported once no longer pending.
+        Mockito.verify(persistenceService).assign(table1, waiter);
+        Mockito.verify(persistenceService).assign(table2, waiter);
+        Assert.assertThat(reportedTables, Matchers.contains(table1));
+        Assert.assertFalse(writeBehindAssignmentWriter.isPending(table1));
+        Assert.assertFalse(writeBehindAssignmentWriter.isPending(table2));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void shouldPersistEveryAssignmentWrittenWhileClosing() throws Exception {
+        // Closing races the writes, so try several times.
+        for (int round = 0; round < ROUNDS; round++) {
+            persistEveryAssignmentWrittenWhileClosing();
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static void persistEveryAssignmentWrittenWhileClosing() throws Exception {
+        final Restaurant restaurant = new Restaurant("Restaurant1");
+        final Waiter waiter = new Waiter("Waiter1");
+
+        final Set<Table> persistedTables = ConcurrentHashMap.newKeySet();
+        final PersistenceService persistenceService = Mockito.mock(PersistenceService.class);
+        Mockito.doAnswer(invocation -> {
+            persistedTables.addAll(((Map<Table, Waiter>) invocation.getArguments()[0]).keySet());
+            return 0L;
+        }).when(persistenceService).assignAll(Mockito.anyMapOf(Table.class, Waiter.class));
+        Mockito.doAnswer(invocation -> {
+            persistedTables.add((Table) invocation.getArguments()[0]);
+            return 0L;
+        }).when(persistenceService).assign(Mockito.any(Table.class), Mockito.any(Waiter.class));
+
+        // A small queue, so that writers are blocked on it when closing.
+        final WriteBehindProperties writeBehindProperties = new WriteBehindProperties();
+        writeBehindProperties.setQueueCapacity(SMALL_QUEUE_CAPACITY);
+
+        final WriteBehindAssignmentWriter writeBehindAssignmentWriter =
+                new WriteBehindAssignmentWriter(persistenceService, writeBehindProperties,
+                        failedTables -> { });
+
+        final ExecutorService executorService = Executors.newFixedThreadPool(THREADS);
+        try {
+            final CountDownLatch started = new CountDownLatch(THREADS);
+            final List<Future<?>> futures = new ArrayList<>();
+            for (int i = 0; i < THREADS; i++) {
+                final int thread = i;
+                futures.add(executorService.submit(() -> {
+                    started.countDown();
+                    for (int j = 0; j < TABLES_PER_THREAD; j++) {
+                        writeBehindAssignmentWriter.write(new Table("Table" + thread + "-" + j, restaurant), waiter);
+                    }
+                }));
+            }
+
+            started.await();
+            writeBehindAssignmentWriter.close();
+
+            // Neither lost nor blocked: written before closing are flushed, and after closing persisted directly.
+            for (final Future<?> future : futures) {
+                future.get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            }
+        } finally {
+            executorService.shutdownNow();
+        }
+
+        Assert.assertThat(persistedTables.size(), Matchers.is(THREADS * TABLES_PER_THREAD));
+    }
+}
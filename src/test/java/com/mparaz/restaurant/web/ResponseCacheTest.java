@@ -0,0 +1,77 @@
+package com.mparaz.restaurant.web;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.hamcrest.Matchers;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Unit tests for the response cache.
+ */
+public class ResponseCacheTest {
+
+    @Test
+    public void shouldSerializeOncePerVersion() throws IOException {
+        final ResponseCache<String> responseCache = new ResponseCache<>(new ObjectMapper());
+
+        final AtomicInteger serialized = new AtomicInteger();
+        final Supplier<Map<String, ?>> body = () -> {
+            serialized.incrementAndGet();
+
+            final Map<String, String> map = new TreeMap<>();
+            map.put("Table2", null);
+            map.put("Table1", "Waiter1");
+            return map;
+        };
+
+        final ResponseCache.CachedResponse cachedResponse = responseCache.get("Restaurant1", 1, body);
+
+        Assert.assertThat(new String(cachedResponse.getJson(), StandardCharsets.UTF_8),
+                Matchers.is("{\"Table1\":\"Waiter1\",\"Table2\":null}"));
+        Assert.assertThat(decompress(cachedResponse.getGzip()), Matchers.is(cachedResponse.getJson()));
+
+        Assert.assertThat(responseCache.get("Restaurant1", 1, body), Matchers.sameInstance(cachedResponse));
+        Assert.assertThat(serialized.get(), Matchers.is(1));
+
+        // A new version is serialized again.
+        Assert.assertThat(responseCache.get("Restaurant1", 2, body).getVersion(), Matchers.is(2L));
+        Assert.assertThat(serialized.get(), Matchers.is(2));
+    }
+
+    @Test
+    public void shouldNotCacheEmptyResponses() {
+        final ResponseCache<String> responseCache = new ResponseCache<>(new ObjectMapper());
+
+        final ResponseCache.CachedResponse cachedResponse =
+                responseCache.get("Unknown", 0, Collections::emptyMap);
+
+        Assert.assertThat(new String(cachedResponse.getJson(), StandardCharsets.UTF_8), Matchers.is("{}"));
+        Assert.assertThat(responseCache.get("Unknown", 0, Collections::emptyMap),
+                Matchers.not(Matchers.sameInstance(cachedResponse)));
+    }
+
+    private static byte[] decompress(byte[] bytes) throws IOException {
+        final ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
+        try (InputStream inputStream = new GZIPInputStream(new ByteArrayInputStream(bytes))) {
+            final byte[] buffer = new byte[bytes.length];
+            int read;
+            while ((read = inputStream.read(buffer)) > 0) {
+                byteArrayOutputStream.write(buffer, 0, read);
+            }
+        }
+
+        return byteArrayOutputStream.toByteArray();
+    }
+}
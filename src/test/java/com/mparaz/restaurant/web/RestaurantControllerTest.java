@@ -0,0 +1,24 @@
+package com.mparaz.restaurant.web;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Unit tests for the controller's request parsing.
+ */
+public class RestaurantControllerTest {
+
+    @Test
+    public void shouldAcceptGzipOnlyWithQualityAboveZero() {
+        Assert.assertTrue(RestaurantController.acceptsGzip("gzip"));
+        Assert.assertTrue(RestaurantController.acceptsGzip("deflate, GZIP;q=0.5"));
+        Assert.assertTrue(RestaurantController.acceptsGzip("*"));
+        Assert.assertTrue(RestaurantController.acceptsGzip("gzip;q=1, *;q=0"));
+
+        Assert.assertFalse(RestaurantController.acceptsGzip("gzip;q=0"));
+        Assert.assertFalse(RestaurantController.acceptsGzip("gzip ; q=0.000, *"));
+        Assert.assertFalse(RestaurantController.acceptsGzip("x-gzip"));
+        Assert.assertFalse(RestaurantController.acceptsGzip("identity, *;q=0"));
+        Assert.assertFalse(RestaurantController.acceptsGzip(""));
+    }
+}
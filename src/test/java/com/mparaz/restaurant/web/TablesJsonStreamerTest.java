@@ -0,0 +1,54 @@
+package com.mparaz.restaurant.web;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.mparaz.restaurant.Restaurant;
+import com.mparaz.restaurant.Table;
+import com.mparaz.restaurant.Waiter;
+import org.hamcrest.Matchers;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Unit tests for streaming the tables of all waiters.
+ */
+public class TablesJsonStreamerTest {
+
+    @Test
+    public void shouldWriteTablesOfAllWaiters() throws IOException {
+        final Restaurant restaurant1 = new Restaurant("Restaurant1");
+        final Restaurant restaurant2 = new Restaurant("Restaurant2");
+
+        final Map<Restaurant, Set<Table>> restaurantTables = new HashMap<>();
+        restaurantTables.put(restaurant1,
+                new HashSet<>(Arrays.asList(new Table("Table1", restaurant1), new Table("Table2", restaurant1))));
+        restaurantTables.put(restaurant2, Collections.singleton(new Table("Table1", restaurant2)));
+
+        final Map<Waiter, Map<Restaurant, Set<Table>>> waiterRestaurantTables = new HashMap<>();
+        waiterRestaurantTables.put(new Waiter("Waiter1"), restaurantTables);
+        waiterRestaurantTables.put(new Waiter("Waiter2"), Collections.emptyMap());
+
+        final ObjectMapper objectMapper = new ObjectMapper();
+        final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        new TablesJsonStreamer(objectMapper.getFactory(), waiterRestaurantTables).writeTo(outputStream);
+
+        @SuppressWarnings("unchecked")
+        final Map<String, Map<String, List<String>>> written = objectMapper.readValue(outputStream.toByteArray(),
+                Map.class);
+
+        Assert.assertThat(written.keySet(), Matchers.containsInAnyOrder("Waiter1", "Waiter2"));
+        Assert.assertThat(written.get("Waiter1").keySet(), Matchers.containsInAnyOrder("Restaurant1", "Restaurant2"));
+        Assert.assertThat(written.get("Waiter1").get("Restaurant1"), Matchers.containsInAnyOrder("Table1", "Table2"));
+        Assert.assertThat(written.get("Waiter1").get("Restaurant2"), Matchers.contains("Table1"));
+        Assert.assertThat(written.get("Waiter2"), Matchers.is(Collections.emptyMap()));
+    }
+}